@@ -0,0 +1,450 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * Compiled representation of a cron4j scheduling pattern. Each field is kept
+ * as a bitset so that we can jump directly to the next matching value instead
+ * of testing the schedule minute by minute. Days which do not match are
+ * skipped as a whole and months which do not match are skipped to their end.
+ *
+ * We support the same syntax as cron4j: *, lists, ranges (also wrapping ones
+ * like 22-2), steps, the names of the months and days, L for the last day of
+ * the month and multiple patterns separated by |. Like in cron4j the day of
+ * the month and the day of the week must both match. The times are evaluated
+ * in the default time zone.
+ *
+ * In addition to cron4j we support an optional leading seconds field: e.g.
+ * '0,15,30,45 * * * * *' matches every 15 seconds. Patterns with 5 fields
+ * match at second 0.
+ *
+ * @author pschatzmann
+ *
+ */
+public class CronExpression {
+	private static final long SECOND_MS = 1000;
+	private static final long DAY_MS = 24 * 60 * 60 * SECOND_MS;
+	private static final int MAX_YEARS = 50;
+	private static final int MAX_CACHE_SIZE = 1000;
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct",
+			"nov", "dec" };
+	private static final String[] DAYS = { "sun", "mon", "tue", "wed", "thu", "fri", "sat" };
+	private static final Map<String, CronExpression> CACHE = new ConcurrentHashMap<String, CronExpression>();
+	private String schedule;
+	private Part[] parts;
+
+	/**
+	 * Constructor
+	 *
+	 * @param schedule
+	 *            cron4j scheduling pattern
+	 */
+	public CronExpression(String schedule) {
+		this.schedule = schedule;
+		String[] patterns = schedule.split("\\|");
+		this.parts = new Part[patterns.length];
+		for (int j = 0; j < patterns.length; j++) {
+			this.parts[j] = new Part(patterns[j]);
+		}
+	}
+
+	/**
+	 * Provides the compiled expression from the cache
+	 *
+	 * @param schedule
+	 * @return
+	 */
+	public static CronExpression compile(String schedule) {
+		CronExpression result = CACHE.get(schedule);
+		if (result == null) {
+			result = new CronExpression(schedule);
+			if (CACHE.size() >= MAX_CACHE_SIZE) {
+				CACHE.clear();
+			}
+			CACHE.put(schedule, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Determines the first matching time which is at or after the indicated
+	 * time
+	 *
+	 * @param from
+	 *            time in milliseconds
+	 * @return matching time in milliseconds or -1 if the schedule never matches
+	 */
+	public long first(long from) {
+		long[] result = { -1 };
+		for (Part part : parts) {
+			long until = result[0] < 0 ? Long.MAX_VALUE : result[0];
+			part.scan(from, until, time -> {
+				result[0] = time;
+				return false;
+			});
+		}
+		return result[0];
+	}
+
+	/**
+	 * Determines the next matching second after the second of the indicated
+	 * time. For patterns without seconds this is the next matching minute.
+	 *
+	 * @param time
+	 *            time in milliseconds
+	 * @return matching time in milliseconds or -1 if the schedule never matches
+	 */
+	public long next(long time) {
+		return first((Math.floorDiv(time, SECOND_MS) + 1) * SECOND_MS);
+	}
+
+	/**
+	 * Determines the number of matches and the first and last matching time in
+	 * the indicated interval without creating any objects per match.
+	 * Overlapping patterns which are separated by | are counted twice.
+	 *
+	 * @param from
+	 * @param until
+	 * @return array with the count, the first and the last time (-1 if there
+	 *         is no match)
+	 */
+	public long[] summarize(long from, long until) {
+		long[] result = { 0, -1, -1 };
+		for (Part part : parts) {
+			part.scan(from, until, time -> {
+				result[0]++;
+				result[1] = result[1] < 0 ? time : Math.min(result[1], time);
+				result[2] = Math.max(result[2], time);
+				return true;
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if the schedule contains a seconds field
+	 *
+	 * @return
+	 */
+	public boolean hasSeconds() {
+		for (Part part : parts) {
+			if (part.hasSeconds) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the schedule can match more than once per minute
+	 *
+	 * @return
+	 */
+	public boolean isSubMinute() {
+		for (Part part : parts) {
+			if (Long.bitCount(part.bits[Part.SECOND]) > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines all matching dates at or after from and before until
+	 *
+	 * @param from
+	 * @param until
+	 * @param max
+	 *            maximum number of dates
+	 * @return
+	 */
+	public List<Date> getDates(Date from, Date until, int max) {
+		List<Date> result = new ArrayList<Date>();
+		if (parts.length == 1) {
+			parts[0].scan(from.getTime(), until.getTime(), time -> {
+				result.add(new Date(time));
+				return result.size() < max;
+			});
+		} else {
+			TreeSet<Long> times = new TreeSet<Long>();
+			for (Part part : parts) {
+				int[] count = { 0 };
+				part.scan(from.getTime(), until.getTime(), time -> {
+					times.add(time);
+					return ++count[0] < max;
+				});
+			}
+			for (Long time : times) {
+				if (result.size() >= max) {
+					break;
+				}
+				result.add(new Date(time));
+			}
+		}
+		return result;
+	}
+
+	public String getSchedule() {
+		return schedule;
+	}
+
+	@Override
+	public String toString() {
+		return schedule;
+	}
+
+	private static boolean isSet(long bits, int value) {
+		return (bits & (1L << value)) != 0;
+	}
+
+	/**
+	 * Determines the first set bit at or after the indicated position
+	 *
+	 * @param bits
+	 * @param from
+	 * @return -1 if there is no such bit
+	 */
+	private static int nextBit(long bits, int from) {
+		if (from > 63) {
+			return -1;
+		}
+		long remaining = bits & (-1L << from);
+		return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+	}
+
+	/**
+	 * A single pattern with 5 or 6 fields
+	 */
+	private static class Part {
+		private static final int SECOND = 0;
+		private static final int MINUTE = 1;
+		private static final int HOUR = 2;
+		private static final int DAY_OF_MONTH = 3;
+		private static final int MONTH = 4;
+		private static final int DAY_OF_WEEK = 5;
+		private static final int[] MIN = { 0, 0, 0, 1, 1, 0 };
+		private static final int[] MAX = { 59, 59, 23, 31, 12, 7 };
+		private static final String[][] NAMES = { null, null, null, null, MONTHS, DAYS };
+		// L is represented by this day of the month
+		private static final int LAST_DAY = 32;
+		private long[] bits = new long[6];
+		private boolean hasSeconds;
+
+		Part(String pattern) {
+			String[] fields = pattern.trim().toLowerCase().split("\\s+");
+			if (fields.length != 5 && fields.length != 6) {
+				throw new IllegalArgumentException("Invalid schedule '" + pattern + "': 5 or 6 fields are expected");
+			}
+			hasSeconds = fields.length == 6;
+			int offset = hasSeconds ? 0 : 1;
+			bits[SECOND] = 1L;
+			for (int j = 0; j < fields.length; j++) {
+				bits[j + offset] = parseField(pattern, fields[j], j + offset);
+			}
+		}
+
+		/**
+		 * Calls the action for all matching times at or after start and before
+		 * until as long as the action returns true
+		 *
+		 * @param start
+		 * @param until
+		 * @param action
+		 */
+		void scan(long start, long until, LongPredicate action) {
+			ZoneId zone = TimeZone.getDefault().toZoneId();
+			LocalDateTime startTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(start), zone);
+			LocalDate date = startTime.toLocalDate();
+			LocalDate last = date.plusYears(MAX_YEARS);
+			if (until < Long.MAX_VALUE) {
+				LocalDate untilDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(until), zone).toLocalDate();
+				last = untilDate.isBefore(last) ? untilDate : last;
+			}
+			int fromHour = startTime.getHour();
+			int fromMinute = startTime.getMinute();
+			int fromSecond = startTime.getSecond();
+			while (!date.isAfter(last)) {
+				if (!isSet(bits[MONTH], date.getMonthValue())) {
+					date = date.withDayOfMonth(1).plusMonths(1);
+				} else {
+					if (matchesDay(date)
+							&& !scanDay(date, zone, fromHour, fromMinute, fromSecond, start, until, action)) {
+						return;
+					}
+					date = date.plusDays(1);
+				}
+				fromHour = 0;
+				fromMinute = 0;
+				fromSecond = 0;
+			}
+		}
+
+		/**
+		 * Calls the action for the matching times of the indicated day
+		 *
+		 * @return false if the scan should stop
+		 */
+		private boolean scanDay(LocalDate date, ZoneId zone, int fromHour, int fromMinute, int fromSecond, long start,
+				long until, LongPredicate action) {
+			long dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+			long dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+			if (dayEnd - dayStart != DAY_MS) {
+				// like in the cron4j scheduler local times which do not exist
+				// because of the daylight saving time are skipped and
+				// repeated ones are matching twice. So we can not skip the local
+				// times before the start.
+				List<Long> times = new ArrayList<Long>();
+				ZoneRules rules = zone.getRules();
+				for (int h = nextBit(bits[HOUR], 0); h >= 0; h = nextBit(bits[HOUR], h + 1)) {
+					for (int m = nextBit(bits[MINUTE], 0); m >= 0; m = nextBit(bits[MINUTE], m + 1)) {
+						for (int sec = nextBit(bits[SECOND], 0); sec >= 0; sec = nextBit(bits[SECOND], sec + 1)) {
+							LocalDateTime local = date.atTime(h, m, sec);
+							for (ZoneOffset offset : rules.getValidOffsets(local)) {
+								times.add(local.toInstant(offset).toEpochMilli());
+							}
+						}
+					}
+				}
+				Collections.sort(times);
+				for (long time : times) {
+					if (!emit(time, start, until, action)) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			for (int h = nextBit(bits[HOUR], fromHour); h >= 0; h = nextBit(bits[HOUR], h + 1)) {
+				boolean firstHour = h == fromHour;
+				for (int m = nextBit(bits[MINUTE], firstHour ? fromMinute : 0); m >= 0; m = nextBit(bits[MINUTE],
+						m + 1)) {
+					boolean firstMinute = firstHour && m == fromMinute;
+					for (int sec = nextBit(bits[SECOND], firstMinute ? fromSecond : 0); sec >= 0; sec = nextBit(
+							bits[SECOND], sec + 1)) {
+						if (!emit(dayStart + ((h * 60 + m) * 60 + sec) * SECOND_MS, start, until, action)) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		}
+
+		private boolean emit(long time, long start, long until, LongPredicate action) {
+			return time < start || (time < until && action.test(time));
+		}
+
+		private boolean matchesDay(LocalDate date) {
+			int day = date.getDayOfMonth();
+			boolean dayOfMonth = isSet(bits[DAY_OF_MONTH], day)
+					|| (day == date.lengthOfMonth() && isSet(bits[DAY_OF_MONTH], LAST_DAY));
+			return dayOfMonth && isSet(bits[DAY_OF_WEEK], date.getDayOfWeek().getValue() % 7);
+		}
+
+		/**
+		 * Translates a field into a bitset
+		 *
+		 * @param pattern
+		 * @param value
+		 * @param field
+		 * @return
+		 */
+		private long parseField(String pattern, String value, int field) {
+			long result = 0;
+			for (String element : value.split(",")) {
+				String[] rangeAndStep = element.split("/");
+				if (rangeAndStep.length > 2) {
+					throw invalid(pattern, element);
+				}
+				List<Integer> values = parseRange(pattern, rangeAndStep[0], field);
+				int step = 1;
+				if (rangeAndStep.length == 2) {
+					step = parseNumber(pattern, rangeAndStep[1]);
+					if (step <= 0) {
+						throw invalid(pattern, element);
+					}
+				}
+				// like cron4j we take every n-th value of the range
+				for (int j = 0; j < values.size(); j += step) {
+					int bit = values.get(j);
+					// 7 is also sunday: this is only mapped after the range has been expanded
+					result |= 1L << (field == DAY_OF_WEEK ? bit % 7 : bit);
+				}
+			}
+			return result;
+		}
+
+		private List<Integer> parseRange(String pattern, String range, int field) {
+			List<Integer> result = new ArrayList<Integer>();
+			if (range.equals("*")) {
+				addValues(result, MIN[field], MAX[field]);
+				return result;
+			}
+			String[] fromTo = range.split("-");
+			if (fromTo.length > 2) {
+				throw invalid(pattern, range);
+			}
+			int from = parseValue(pattern, fromTo[0], field);
+			int to = fromTo.length == 2 ? parseValue(pattern, fromTo[1], field) : from;
+			if (from <= to) {
+				addValues(result, from, to);
+			} else {
+				addValues(result, from, MAX[field]);
+				addValues(result, MIN[field], to);
+			}
+			return result;
+		}
+
+		private void addValues(List<Integer> result, int from, int to) {
+			for (int j = from; j <= to; j++) {
+				result.add(j);
+			}
+		}
+
+		private int parseValue(String pattern, String value, int field) {
+			if (field == DAY_OF_MONTH && value.equals("l")) {
+				return LAST_DAY;
+			}
+			String[] names = NAMES[field];
+			if (names != null) {
+				for (int j = 0; j < names.length; j++) {
+					if (names[j].equals(value)) {
+						return j + MIN[field];
+					}
+				}
+			}
+			int result = parseNumber(pattern, value);
+			if (result < MIN[field] || result > MAX[field]) {
+				throw invalid(pattern, value);
+			}
+			return result;
+		}
+
+		private int parseNumber(String pattern, String value) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException ex) {
+				throw invalid(pattern, value);
+			}
+		}
+
+		private IllegalArgumentException invalid(String pattern, String value) {
+			return new IllegalArgumentException("Invalid schedule '" + pattern + "': '" + value + "' is not valid");
+		}
+	}
+
+}
@@ -1,25 +1,84 @@
 package ch.pschatzmann.docker.jobs.api;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.Executor;
 
 import ch.pschatzmann.docker.jobs.model.Job;
-import it.sauronsoftware.cron4j.Predictor;
 import it.sauronsoftware.cron4j.Scheduler;
 
 /**
  * Access to external Scheduler api. implemented as separate class so that it can be eaily exchanged
  * 
+ * cron4j only supports a resolution of minutes: schedules with a seconds field
+ * are therefore executed by an internal timing wheel. The wheel (and its
+ * thread) is only created with the first schedule which has a seconds field.
+ * 
  * @author pschatzmann
  *
  */
 public class CronScheduler implements IScheduler {
-	private int countOfScheduledJobs = 0;
+	private static final int MAX_DATES = 100000;
 	private Scheduler scheduler;
+	private volatile TimingWheelScheduler wheel;
+	private SharedTriggers triggers;
+	private Executor executor;
+	private boolean started;
 	
 	public CronScheduler() {
+		this(new ExecutionPool());
+	}
+
+	/**
+	 * Constructor
+	 * @param executor executes the jobs when they are due
+	 */
+	public CronScheduler(Executor executor) {
+		this.executor = executor;
 		scheduler = new Scheduler();
+		// one cron4j task per distinct schedule
+		triggers = new SharedTriggers(this::register, this::unregister, executor);
+	}
+
+	private String register(SharedTriggers.Trigger trigger) {
+		if (hasSeconds(trigger.getSchedule())) {
+			return getWheel().scheduleTask(trigger.getSchedule(), trigger);
+		}
+		return scheduler.schedule(trigger.getSchedule(), trigger);
+	}
+
+	private void unregister(String id) {
+		TimingWheelScheduler wheel = this.wheel;
+		if (wheel == null || !wheel.descheduleTask(id)) {
+			scheduler.deschedule(id);
+		}
+	}
+
+	private synchronized TimingWheelScheduler getWheel() {
+		if (wheel == null) {
+			wheel = new TimingWheelScheduler(executor);
+			if (started) {
+				wheel.start();
+			}
+		}
+		return wheel;
+	}
+
+	/**
+	 * Return true if the timing wheel for the schedules with seconds is running
+	 * @return
+	 */
+	public synchronized boolean isTimingWheelActive() {
+		return wheel != null && started;
+	}
+
+	private static boolean hasSeconds(String schedule) {
+		try {
+			return CronExpression.compile(schedule).hasSeconds();
+		} catch (IllegalArgumentException ex) {
+			// let cron4j report the invalid schedule
+			return false;
+		}
 	}
 	
 	
@@ -27,7 +86,16 @@ public class CronScheduler implements IScheduler {
 	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#getCountOfScheduledJobs()
 	 */
 	public int getCountOfScheduledJobs() {
-		return countOfScheduledJobs;
+		return triggers.getMemberCount();
+	}
+
+	/**
+	 * Return the number of distinct schedules which are registered in cron4j
+	 * or in the timing wheel
+	 * @return
+	 */
+	public int getCountOfTriggers() {
+		return triggers.getTriggerCount();
 	}
 	
 
@@ -35,8 +103,7 @@ public class CronScheduler implements IScheduler {
 	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#schedule(java.lang.String, ch.pschatzmann.docker.jobs.model.Job)
 	 */
 	public String schedule(String schedule, Job job) {
-		++countOfScheduledJobs;
-		return this.scheduler.schedule(schedule, job);
+		return this.triggers.add(schedule, job);
 	}
 
 
@@ -44,8 +111,25 @@ public class CronScheduler implements IScheduler {
 	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#deschedule(java.lang.String)
 	 */
 	public void deschedule(String id) {
-		--countOfScheduledJobs;
-		this.scheduler.deschedule(id);
+		this.triggers.remove(id);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#execute(ch.pschatzmann.docker.jobs.model.Job)
+	 */
+	@Override
+	public void execute(Job job) {
+		this.executor.execute(job);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#getExecutor()
+	 */
+	@Override
+	public Executor getExecutor() {
+		return this.executor;
 	}
 
 
@@ -54,29 +138,36 @@ public class CronScheduler implements IScheduler {
 	 */
 	@Override
 	public void stop() {
-		countOfScheduledJobs = 0;
-		this.scheduler.stop();;
+		this.triggers.clear();
+		synchronized (this) {
+			started = false;
+			if (this.wheel != null) {
+				this.wheel.stop();
+			}
+		}
+		if (this.scheduler.isStarted()) {
+			this.scheduler.stop();
+		}
 	}
 
 
 	@Override
 	public void start() {
 		this.scheduler.start();;
+		synchronized (this) {
+			started = true;
+			if (this.wheel != null) {
+				this.wheel.start();
+			}
+		}
 	}
 	
 	
+	/**
+	 * Determines the execution dates at or after from and before until
+	 */
 	public Collection<Date> getDates(String schedule, Date from , Date until) {
-		Collection<Date> result = new ArrayList();
-		Predictor p = new Predictor(schedule);
-		Date next = p.nextMatchingDate();
-		int count=0;
-		while (next.before(until) && ++count<100000) {
-			if (next.after(from)) {
-				result.add(next);
-			}
-			next = p.nextMatchingDate();
-		}
-		return result;
+		return CronExpression.compile(schedule).getDates(from, until, MAX_DATES);
 	}
 	
 
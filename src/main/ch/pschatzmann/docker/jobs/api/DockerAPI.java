@@ -1,19 +1,33 @@
 package ch.pschatzmann.docker.jobs.api;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -23,6 +37,7 @@ import com.github.dockerjava.api.command.ExecCreateCmdResponse;
 import com.github.dockerjava.api.command.InspectContainerCmd;
 import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.command.InspectContainerResponse.Mount;
+import com.github.dockerjava.api.command.ListContainersCmd;
 import com.github.dockerjava.api.command.LogContainerCmd;
 import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.Event;
@@ -32,12 +47,10 @@ import com.github.dockerjava.api.model.VolumesFrom;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.DockerClientConfig;
-import com.github.dockerjava.core.command.EventsResultCallback;
 import com.github.dockerjava.core.command.ExecStartResultCallback;
 import com.github.dockerjava.core.command.LogContainerResultCallback;
 
 import ch.pschatzmann.docker.jobs.model.Container;
-import ch.pschatzmann.docker.jobs.model.Job;
 import ch.pschatzmann.docker.jobs.model.JobDestination;
 import ch.pschatzmann.docker.jobs.model.Model;
 import ch.pschatzmann.docker.jobs.model.Utils;
@@ -54,6 +67,19 @@ import ch.pschatzmann.docker.jobs.model.Volume;
 public class DockerAPI implements IDocker {
 	private static final Logger LOG = Logger.getLogger(DockerAPI.class);
 	private DockerClient dockerClient; // 2017-11-23T11:10:45.228007177Z"
+	private EventCoalescer eventCoalescer;
+	private EventSubscription eventSubscription;
+	private String regexName = ".*";
+	private InspectCache inspectCache = new InspectCache(Integer.parseInt(Utils.getProperty("inspectCacheSize", "1000")));
+	private File snapshotFile = getSnapshotFile();
+	private ScheduledExecutorService snapshotTimer;
+	private volatile String currentContainerId;
+	// id of the container in the cgroup (docker/<id> or docker-<id>.scope) or in the mount of /etc/hostname
+	private static final Pattern CONTAINER_ID = Pattern.compile("(?:docker[-/]|/containers/)([0-9a-f]{64})");
+	// attributes which are only available by inspecting the container
+	private static final Set<String> INSPECTED_ATTRIBUTES = new HashSet<String>(
+			Arrays.asList("host", "volumes", "volumes.localpath", "volumes.destination", "volumes.source"));
+	private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
 
 	public DockerAPI() {
 		this(null);
@@ -104,46 +130,383 @@ public class DockerAPI implements IDocker {
 	 * docker.jobs.model.Model, java.lang.String)
 	 */
 	public void loadContainers(Model model, String regexName) throws IOException {
+		this.regexName = regexName;
+		// warm restart: we only need to inspect the containers which are not in the snapshot
+		if (snapshotFile != null && inspectCache.size() == 0) {
+			inspectCache.load(snapshotFile);
+		}
 
 		// load all containers in order to determine the model container first
-		Collection<Container> containers = loadContainersEx(model, regexName);
+		Collection<Container> containers = loadContainersEx(model, regexName, new HashSet<String>());
+
+		// add all containers to the model: the jobs are planned in parallel
+		model.addContainers(containers);
 
-		// all all containers to the model
-		containers.forEach(c -> model.addContainer(c));
+	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see ch.pschatzmann.docker.jobs.api.IDocker#loadContainer(ch.pschatzmann.
+	 * docker.jobs.model.Model, java.lang.String)
+	 */
+	public Container loadContainer(Model model, String id) throws IOException {
+		String hostName = InetAddress.getLocalHost().getHostName();
+		boolean known = model.getContainer(id) != null;
+		Container result = known ? null : inspectCache.get(model, id, null);
+		if (result == null) {
+			// a container which is already in the model is inspected again because
+			// its labels might have changed
+			inspectCache.evict(id);
+			result = processContainer(model, hostName, id, null);
+			inspectCache.put(id, null, result);
+		}
+		if (isCurrentContainer(hostName, result)) {
+			LOG.info("The batch container has been identifed for id " + id);
+			model.setBatchContainer(result);
+		}
+		// a restarted container might reuse the existing instance: changed labels
+		// replace the container and its jobs
+		return known ? model.replaceContainer(result) : model.addContainer(result);
 	}
 
 	/**
 	 * Read all containers and load the detailed information to translate them into
-	 * our data model
+	 * our data model.
+	 * 
+	 * If selectByLabels is active we only inspect the containers which have job
+	 * labels (and the container in which we are running). The remaining containers
+	 * are only loaded if the batch container defines Local jobs which need to be
+	 * executed for all containers. The containers which do not need the mounts
+	 * are translated from the list data, unless the batch container defines
+	 * Local jobs. With labelFilter Docker is already filtering the
+	 * containers by the indicated comma separated labels (key or key=value).
+	 * The containers which are already in the model are skipped.
 	 * 
 	 * @param model
 	 * @param regexName
-	 * @param hostName
+	 * @param ids
+	 *            returns the ids of all listed containers
 	 * @return
-	 * @throws UnknownHostException
+	 * @throws IOException
 	 */
-	private Collection<Container> loadContainersEx(Model model, String regexName) throws UnknownHostException {
+	private Collection<Container> loadContainersEx(Model model, String regexName, Set<String> ids) throws IOException {
 		String hostName = InetAddress.getLocalHost().getHostName();
+		boolean selectByLabels = "true".equalsIgnoreCase(Utils.getProperty("selectByLabels", "false"));
+		ListContainersCmd listCmd = dockerClient.listContainersCmd().withShowAll(true);
+		String labelFilter = Utils.getProperty("labelFilter", "");
+		if (!Utils.isEmpty(labelFilter)) {
+			listCmd.withLabelFilter(labelFilter.split(","));
+		}
 
-		Collection<Container> containers = new ArrayList<Container>();
-		for (com.github.dockerjava.api.model.Container c : dockerClient.listContainersCmd().withShowAll(true).exec()) {
+		// determine the relevant containers
+		List<com.github.dockerjava.api.model.Container> candidates = new ArrayList<com.github.dockerjava.api.model.Container>();
+		List<com.github.dockerjava.api.model.Container> selected = new ArrayList<com.github.dockerjava.api.model.Container>();
+		List<com.github.dockerjava.api.model.Container> deferred = new ArrayList<com.github.dockerjava.api.model.Container>();
+		for (com.github.dockerjava.api.model.Container c : listCmd.exec()) {
+			ids.add(c.getId());
 			String name = Utils.toString(c.getNames(), ":");
-			if (name.matches(regexName)) {
-				// determine details
+			if (name.matches(regexName) && model.getContainer(c.getId()) == null) {
+				if (isCurrentContainer(hostName, c)) {
+					candidates.add(c);
+				} else if (!selectByLabels || hasJobLabels(c)) {
+					selected.add(c);
+				} else {
+					deferred.add(c);
+				}
+			}
+		}
+
+		// forget the containers which have been removed while we were not running
+		inspectCache.retain(ids);
+		// we need the batch container first: its Local jobs can use the mounts and
+		// the host of all containers, which are only available by inspecting them
+		Collection<Container> containers = inspectContainers(model, hostName, candidates, false);
+		Container batchContainer = model.getDefaultBatchContainer();
+		boolean useListData = selectByLabels && batchContainer != null && !isJobForAllContainers(batchContainer);
+		containers.addAll(inspectContainers(model, hostName, selected, useListData));
+		if (!deferred.isEmpty()) {
+			if (isJobForAllContainers(model.getDefaultBatchContainer())) {
+				LOG.info("The batch container defines jobs for all containers: loading " + deferred.size()
+						+ " additional containers");
+				containers.addAll(inspectContainers(model, hostName, deferred, false));
+			} else {
+				LOG.info(deferred.size() + " containers without jobs have been ignored");
+			}
+		}
+		return containers;
+	}
+
+	/**
+	 * Translates the containers into our data model. The containers are
+	 * inspected in parallel: the number of threads (inspectThreads) limits the
+	 * number of concurrent calls to the docker daemon. Containers which have
+	 * already been inspected are taken from the cache. The result is returned in
+	 * the order of the container list.
+	 * 
+	 * @param model
+	 * @param hostName
+	 * @param selected
+	 * @param useListData
+	 *            if true we use the data from the container list for the
+	 *            containers which do not need any mount information
+	 * @return
+	 * @throws IOException
+	 */
+	private Collection<Container> inspectContainers(Model model, String hostName,
+			List<com.github.dockerjava.api.model.Container> selected, boolean useListData) throws IOException {
+		Collection<Container> containers = new ArrayList<Container>();
+		if (selected.isEmpty()) {
+			return containers;
+		}
+
+		// fan out the inspect calls
+		ExecutorService executor = Executors.newFixedThreadPool(getInspectThreads(selected.size()), r -> {
+			Thread thread = new Thread(r, "docker-inspect");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Container>> futures = new ArrayList<Future<Container>>();
+			for (com.github.dockerjava.api.model.Container c : selected) {
+				Container cached = inspectCache.get(model, c.getId(), c.getCreated());
+				if (cached != null) {
+					futures.add(CompletableFuture.completedFuture(cached));
+				} else if (useListData && !isInspectionNeeded(hostName, c)) {
+					futures.add(CompletableFuture.completedFuture(processListedContainer(model, hostName, c)));
+				} else {
+					futures.add(executor.submit(() -> {
+						Container result = processContainer(model, hostName, c.getId(), c.getImage());
+						inspectCache.put(c.getId(), c.getCreated(), result);
+						return result;
+					}));
+				}
+			}
+
+			// collect the results in a deterministic order
+			for (int j = 0; j < futures.size(); j++) {
 				try {
-					processContainer(model, hostName, containers, c);
-				} catch (Exception ex) {
-					LOG.error("Could not process container" + name, ex);
+					Container modelContainer = futures.get(j).get();
+					if (isCurrentContainer(hostName, modelContainer)) {
+						LOG.info("The batch container has been identifed for id " + modelContainer.getId());
+						LOG.info("host is " + hostName + " vs " + modelContainer.getAttributes().get("host"));
+						model.setBatchContainer(modelContainer);
+					}
+					containers.add(modelContainer);
+				} catch (ExecutionException ex) {
+					LOG.error("Could not process container" + Utils.toString(selected.get(j).getNames(), ":"),
+							ex.getCause());
 				}
 			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The loading of the containers has been interrupted", ex);
+		} finally {
+			executor.shutdownNow();
 		}
 		return containers;
 	}
 
-	private void processContainer(Model model, String hostName, Collection<Container> containers,
+	/**
+	 * Returns true if the container has any job labels
+	 * 
+	 * @param c
+	 * @return
+	 */
+	private boolean hasJobLabels(com.github.dockerjava.api.model.Container c) {
+		if (c.getLabels() != null) {
+			for (String key : c.getLabels().keySet()) {
+				if (key.toLowerCase().startsWith("job.")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the listed container is the one in which we are running
+	 * 
+	 * @param hostName
+	 * @param c
+	 * @return
+	 */
+	private boolean isCurrentContainer(String hostName, com.github.dockerjava.api.model.Container c) {
+		return c.getId().equals(getCurrentContainerId(hostName)) || Arrays.asList(c.getNames()).contains("/docker-cron");
+	}
+
+	/**
+	 * Determines the id of the container in which we are running. Docker shows it
+	 * in /proc/self/cgroup (cgroup v1) or in the mount of /etc/hostname
+	 * (/proc/self/mountinfo). Otherwise we inspect the host name, which is the
+	 * short container id unless a hostname has been defined.
+	 * 
+	 * @param hostName
+	 * @return null if we are not running in a container
+	 */
+	private String getCurrentContainerId(String hostName) {
+		String result = currentContainerId;
+		if (result == null) {
+			result = getContainerId(new File("/proc/self/cgroup"));
+			if (result == null) {
+				result = getContainerId(new File("/proc/self/mountinfo"));
+			}
+			if (result == null) {
+				try {
+					result = dockerClient.inspectContainerCmd(hostName).exec().getId();
+				} catch (Exception ex) {
+					LOG.info("The host " + hostName + " is not a container: " + ex.getMessage());
+				}
+			}
+			result = result == null ? "" : result;
+			LOG.info("We are running in the container '" + result + "'");
+			currentContainerId = result;
+		}
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Finds the docker container id in the indicated cgroup or mountinfo file
+	 * 
+	 * @param file
+	 * @return null if the file does not contain any container id
+	 */
+	public static String getContainerId(File file) {
+		try {
+			for (String line : Files.readAllLines(file.toPath())) {
+				Matcher m = CONTAINER_ID.matcher(line);
+				if (m.find()) {
+					return m.group(1);
+				}
+			}
+		} catch (IOException ex) {
+			LOG.debug("Could not read " + file + ": " + ex);
+		}
+		return null;
+	}
+
+	/**
+	 * We need to inspect a container to get the mounts and the host. So we can
+	 * only use the list data if the job labels do not read them. This is only
+	 * called if the batch container does not define any jobs for all containers.
+	 * 
+	 * @param hostName
+	 * @param c
+	 * @return
+	 */
+	private boolean isInspectionNeeded(String hostName, com.github.dockerjava.api.model.Container c) {
+		return isCurrentContainer(hostName, c) || c.getLabels() == null || isInspectionNeeded(c.getLabels());
+	}
+
+	/**
+	 * Returns true if the values of the job labels (commands, conditions and
+	 * templates) use a variable which is only available by inspecting the
+	 * container. We compare whole identifiers, so that e.g. hostname or
+	 * volumes_dir are not taken for host or volumes.
+	 * 
+	 * @param labels
+	 * @return
+	 */
+	public static boolean isInspectionNeeded(Map<String, String> labels) {
+		for (Entry<String, String> e : labels.entrySet()) {
+			if (e.getKey().toLowerCase().startsWith("job.") && e.getValue() != null) {
+				Matcher m = IDENTIFIER.matcher(e.getValue());
+				while (m.find()) {
+					String name = m.group();
+					// volumes.source also reads volumes
+					if (INSPECTED_ATTRIBUTES.contains(name) || INSPECTED_ATTRIBUTES.contains(name.split("\\.")[0])) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the batch container defines jobs with the Local scenario
+	 * which are executed for all containers
+	 * 
+	 * @param batchContainer
+	 * @return
+	 */
+	private boolean isJobForAllContainers(Container batchContainer) {
+		if (batchContainer != null) {
+			for (Entry<String, String> e : batchContainer.getAttributes().entrySet()) {
+				String key = e.getKey().toLowerCase().trim();
+				if (key.matches("job\\.(.*\\.)?(level|scenario)(\\..*)?") && "Local".equals(String.valueOf(e.getValue()).trim())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Translates the container into our data model just with the information
+	 * from the container list
+	 * 
+	 * @param model
+	 * @param hostName
+	 * @param c
+	 * @return
+	 */
+	private Container processListedContainer(Model model, String hostName,
 			com.github.dockerjava.api.model.Container c) {
-		InspectContainerCmd cmd = dockerClient.inspectContainerCmd(c.getId());
+		Map<String, String> attributes = new HashMap<String, String>();
+		String containerName = c.getNames()[0];
+		containerName = containerName.startsWith("/") ? containerName.substring(1) : containerName;
+		attributes.put("name", containerName);
+		attributes.put("docker-cron-host", hostName);
+		attributes.put("image", c.getImage());
+		if (c.getCreated() != null) {
+			// same format as the inspect result (RFC 3339) which omits zero fractions
+			DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+			df.setTimeZone(TimeZone.getTimeZone("UTC"));
+			attributes.put("created", df.format(new Date(c.getCreated() * 1000)));
+		}
+		attributes.put("id", c.getId());
+		attributes.putAll(c.getLabels());
+		return new Container(model, attributes);
+	}
+
+	/**
+	 * Determines the number of threads which are used to inspect the containers
+	 * 
+	 * @param containerCount
+	 * @return
+	 */
+	private int getInspectThreads(int containerCount) {
+		int threads = Integer.parseInt(Utils.getProperty("inspectThreads", "8"));
+		return Math.max(1, Math.min(threads, containerCount));
+	}
+
+	/**
+	 * Returns true if the container is the one in which we are running
+	 * 
+	 * @param hostName
+	 * @param container
+	 * @return
+	 */
+	private boolean isCurrentContainer(String hostName, Container container) {
+		String id = getCurrentContainerId(hostName);
+		return id != null ? id.equals(container.getId()) || "docker-cron".equals(container.getName())
+				: hostName.equals(container.getAttributes().get("host")) || "docker-cron".equals(container.getName());
+	}
+
+	/**
+	 * Inspects the container and translates the information into our data model
+	 * 
+	 * @param model
+	 * @param hostName
+	 * @param id
+	 * @param image
+	 *            image name from the container list or null if it should be
+	 *            taken from the container configuration
+	 * @return
+	 */
+	private Container processContainer(Model model, String hostName, String id, String image) {
+		InspectContainerCmd cmd = dockerClient.inspectContainerCmd(id);
 		InspectContainerResponse details = cmd.exec();
 
 		// collect attributes
@@ -154,20 +517,13 @@ public class DockerAPI implements IDocker {
 		attributes.put("name", containerName);
 		attributes.put("host", details.getConfig().getHostName());
 		attributes.put("docker-cron-host", hostName);
-		attributes.put("image", c.getImage());
+		attributes.put("image", image != null ? image : details.getConfig().getImage());
 		attributes.put("created", details.getCreated());
 
-		attributes.put("id", c.getId());
+		attributes.put("id", id);
 		attributes.putAll(details.getConfig().getLabels());
 		Container modelContainer = new Container(model, attributes);
 
-		// record current container ID
-		if (hostName.equals(details.getConfig().getHostName()) || (containerName.equals("docker-cron"))) {
-			LOG.info("The batch container has been identifed for id " + c.getId());
-			LOG.info("host is " + hostName + " vs " + details.getConfig().getHostName());
-			model.setBatchContainer(modelContainer);
-		}
-
 		// add mount information
 		for (Mount mount : details.getMounts()) {
 			if (mount.getRW()) {
@@ -175,26 +531,112 @@ public class DockerAPI implements IDocker {
 						mount.getDestination().toString(), mount.getRW()));
 			}
 		}
-		containers.add(modelContainer);
+		return modelContainer;
 	}
 
 	/**
-	 * Subscribe to docker events
+	 * Subscribe to docker events. The events of the same container are collected
+	 * during a time window (eventWindowMs) and only the last one is processed.
+	 * When the event stream breaks we reconnect automatically and resume from the
+	 * last received event.
 	 */
 	@Override
 	public void subscribeEvents(Model model) {
+		long windowMs = Long.parseLong(Utils.getProperty("eventWindowMs", "500"));
+		eventCoalescer = new EventCoalescer(evt -> processEvent(model, evt), windowMs, "start|restart|die|destroy");
+		eventSubscription = new EventSubscription(dockerClient, eventCoalescer::add, () -> reconcile(model));
+		eventSubscription.start();
+
+		long intervalSec = Long.parseLong(Utils.getProperty("snapshotIntervalSec", "300"));
+		if (snapshotFile != null && intervalSec > 0 && snapshotTimer == null) {
+			snapshotTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotTimer.scheduleWithFixedDelay(this::saveSnapshot, intervalSec, intervalSec, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Saves the inspected containers so that the next start does not need to
+	 * inspect them again. This is only done if the stateDir is defined.
+	 */
+	@Override
+	public void saveSnapshot() {
+		if (snapshotFile != null) {
+			try {
+				inspectCache.save(snapshotFile);
+			} catch (IOException ex) {
+				LOG.error("Could not save the snapshot " + snapshotFile, ex);
+			}
+		}
+	}
 
+	private static File getSnapshotFile() {
+		String stateDir = Utils.getProperty("stateDir", "");
+		if (Utils.isEmpty(stateDir)) {
+			return null;
+		}
+		File dir = new File(stateDir);
+		dir.mkdirs();
+		return new File(dir, "containers.snapshot");
+	}
+
+	/**
+	 * Brings the model in line with the existing containers: containers which are
+	 * not known yet are selected like in loadContainers (selectByLabels and
+	 * labelFilter), inspected and added. Containers which do not exist any more
+	 * are removed.
+	 * 
+	 * @param model
+	 */
+	public synchronized void reconcile(Model model) {
+		LOG.info("reconciling the containers with docker");
+		Set<String> ids = new HashSet<String>();
+		Collection<Container> containers;
 		try {
-			dockerClient.eventsCmd().withSince(String.valueOf(String.valueOf(System.currentTimeMillis() / 1000)))
-					.exec(new EventsResultCallback() {
-						@Override
-						public void onNext(Event evt) {
-							processEvent(model, evt);
-						}
-					});
-		} catch (Exception e) {
-			LOG.error(e, e);
+			containers = loadContainersEx(model, regexName, ids);
+		} catch (IOException ex) {
+			LOG.error("Could not reconcile the containers", ex);
+			return;
 		}
+
+		for (Container c : model.getContainers()) {
+			if (!ids.contains(c.getId())) {
+				model.deleteContainer(c.getId());
+				c.descheduleJobs();
+			}
+		}
+
+		model.addContainers(containers);
+	}
+
+	/**
+	 * Provides the statistics of the processed Docker events
+	 * 
+	 * @return null if we did not subscribe to the events
+	 */
+	public EventCoalescer getEventCoalescer() {
+		return eventCoalescer;
+	}
+
+	/**
+	 * Provides the statistics of the inspect cache
+	 * 
+	 * @return
+	 */
+	public InspectCache getInspectCache() {
+		return inspectCache;
+	}
+
+	/**
+	 * Provides the state of the event stream
+	 * 
+	 * @return null if we did not subscribe to the events
+	 */
+	public EventSubscription getEventSubscription() {
+		return eventSubscription;
 	}
 
 	/**
@@ -203,27 +645,28 @@ public class DockerAPI implements IDocker {
 	 * @param model
 	 * @param evt
 	 */
-	private void processEvent(Model model, Event evt) {
+	private synchronized void processEvent(Model model, Event evt) {
 		if (evt.getType() == EventType.CONTAINER)
 			LOG.info("event " + evt);
 		String status = evt.getStatus();
 		if (status != null) {
 			String containerID = evt.getId();
 			if (status.matches("start|restart")) {
-				// this will just process the new containers
+				// we just process the container of the event
 				try {
-					loadContainers(model, ".*");
-				} catch (IOException e) {
-					LOG.error("Could not subscribe to events for new containers", e);
+					loadContainer(model, containerID);
+				} catch (Exception e) {
+					LOG.error("Could not load the container " + containerID, e);
 				}
-			} else if (status.matches("die")) {
+			} else if (status.equals("die")) {
+				// the jobs are kept in case the container is started again
+				model.retireContainer(containerID);
+			} else if (status.equals("destroy")) {
+				inspectCache.evict(containerID);
 				Container c = model.deleteContainer(containerID);
 				if (c != null) {
 					LOG.info("Stopping josbs for " + c);
-					for (Job job : c.getJobs()) {
-						LOG.info("The jobs for the container have been descheduled " + job);
-						model.deschedule(job.getId());
-					}
+					c.descheduleJobs();
 				}
 			}
 		}
@@ -240,6 +683,10 @@ public class DockerAPI implements IDocker {
 				.withAttachStderr(true).withCmd(cmd).exec();
 		dockerClient.execStartCmd(execCreateCmdResponse.getId())
 				.exec(new ExecStartResultCallback(System.out, System.err)).awaitStarted().awaitCompletion();
+		Integer exitCode = dockerClient.inspectExecCmd(execCreateCmdResponse.getId()).exec().getExitCode();
+		if (exitCode != null && exitCode != 0) {
+			throw new IllegalStateException("The command " + Utils.toString(cmd, " ") + " has failed with the exit code " + exitCode);
+		}
 
 	}
 
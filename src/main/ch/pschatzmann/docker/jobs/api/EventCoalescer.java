@@ -0,0 +1,217 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+
+/**
+ * Collects the Docker events per container during a short time window and
+ * forwards only the last event of each container. So a burst of
+ * start/die/restart events during a deployment results in one single update of
+ * the model. The events are forwarded on a separate thread in the order of
+ * their last update.
+ *
+ * @author pschatzmann
+ *
+ */
+public class EventCoalescer {
+	private static final Logger LOG = Logger.getLogger(EventCoalescer.class);
+	private Consumer<Event> consumer;
+	private String relevantStatus;
+	private long windowMs;
+	private Map<String, PendingEvent> pending = new LinkedHashMap<String, PendingEvent>();
+	private ScheduledExecutorService timer;
+	private boolean flushScheduled = false;
+	private AtomicLong receivedCount = new AtomicLong();
+	private AtomicLong mergedCount = new AtomicLong();
+	private AtomicLong droppedCount = new AtomicLong();
+	private AtomicLong processedCount = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param consumer
+	 *            logic which processes the final events
+	 * @param windowMs
+	 *            time in ms during which we wait for additional events of the
+	 *            same container. If it is 0 the events are forwarded immediately
+	 * @param relevantStatus
+	 *            regex for the status of the events which need to be forwarded.
+	 *            All other events are dropped
+	 */
+	public EventCoalescer(Consumer<Event> consumer, long windowMs, String relevantStatus) {
+		this.consumer = consumer;
+		this.windowMs = windowMs;
+		this.relevantStatus = relevantStatus;
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "docker-events");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Adds a new event. If there is already a pending event for the same
+	 * container it is replaced by the new one.
+	 *
+	 * @param evt
+	 */
+	public void add(Event evt) {
+		receivedCount.incrementAndGet();
+		if (!isRelevant(evt)) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+		if (windowMs <= 0) {
+			process(evt);
+			return;
+		}
+
+		synchronized (pending) {
+			// remove first so that the entries stay sorted by the time of the last update
+			PendingEvent old = pending.remove(evt.getId());
+			if (old != null) {
+				mergedCount.incrementAndGet();
+				LOG.debug("event " + old.event.getStatus() + " is replaced by " + evt.getStatus() + " for "
+						+ evt.getId());
+			}
+			pending.put(evt.getId(), new PendingEvent(evt, System.currentTimeMillis()));
+			if (!flushScheduled) {
+				flushScheduled = true;
+				timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Forwards all events which did not receive any update during the time
+	 * window
+	 */
+	private void flush() {
+		List<Event> result = new ArrayList<Event>();
+		synchronized (pending) {
+			long now = System.currentTimeMillis();
+			Iterator<PendingEvent> it = pending.values().iterator();
+			long nextDue = -1;
+			while (it.hasNext()) {
+				PendingEvent pe = it.next();
+				if (pe.lastUpdate + windowMs <= now) {
+					result.add(pe.event);
+					it.remove();
+				} else {
+					nextDue = pe.lastUpdate + windowMs;
+					break;
+				}
+			}
+			flushScheduled = nextDue >= 0;
+			if (flushScheduled) {
+				timer.schedule(this::flush, Math.max(1, nextDue - now), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		for (Event evt : result) {
+			process(evt);
+		}
+	}
+
+	private void process(Event evt) {
+		processedCount.incrementAndGet();
+		try {
+			consumer.accept(evt);
+		} catch (Exception ex) {
+			LOG.error("Could not process event " + evt, ex);
+		}
+	}
+
+	private boolean isRelevant(Event evt) {
+		return (evt.getType() == null || evt.getType() == EventType.CONTAINER) && evt.getId() != null
+				&& evt.getStatus() != null && evt.getStatus().matches(relevantStatus);
+	}
+
+	/**
+	 * Stops the processing of the pending events
+	 */
+	public void stop() {
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Number of events which were received from Docker
+	 *
+	 * @return
+	 */
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/**
+	 * Number of events which were replaced by a later event of the same container
+	 *
+	 * @return
+	 */
+	public long getMergedCount() {
+		return mergedCount.get();
+	}
+
+	/**
+	 * Number of events which were ignored because they are not relevant for the
+	 * model
+	 *
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Number of events which were forwarded for processing
+	 *
+	 * @return
+	 */
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+
+	/**
+	 * Number of events which are waiting for the end of their time window
+	 *
+	 * @return
+	 */
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "received=" + getReceivedCount() + " processed=" + getProcessedCount() + " merged="
+				+ getMergedCount() + " dropped=" + getDroppedCount();
+	}
+
+	/**
+	 * Last event of a container with the time when it was received
+	 */
+	private static class PendingEvent {
+		private Event event;
+		private long lastUpdate;
+
+		PendingEvent(Event event, long lastUpdate) {
+			this.event = event;
+			this.lastUpdate = lastUpdate;
+		}
+	}
+
+}
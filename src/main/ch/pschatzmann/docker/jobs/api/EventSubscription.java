@@ -0,0 +1,324 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.EventsCmd;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.core.command.EventsResultCallback;
+
+import ch.pschatzmann.docker.jobs.model.Utils;
+
+/**
+ * Supervised subscription to the Docker events. We keep track of the time of
+ * the last received event. When the stream breaks we reconnect with an
+ * increasing delay and first replay the missed events with since/until from
+ * this cursor. If the gap can not be bridged - because it is too long
+ * (eventMaxGapSec) or because Docker keeps only a limited number of events
+ * (eventBufferSize) - we fall back to a reconciliation of the model. The
+ * reconnect delay starts with eventReconnectDelayMs and is doubled up to one
+ * minute.
+ *
+ * @author pschatzmann
+ *
+ */
+public class EventSubscription {
+	private static final Logger LOG = Logger.getLogger(EventSubscription.class);
+	private static final long MAX_DELAY_MS = 60000;
+	private static final long REPLAY_TIMEOUT_SEC = 60;
+	private EventSource eventSource;
+	private Consumer<Event> consumer;
+	private Runnable reconciliation;
+	private ScheduledExecutorService supervisor;
+	private AtomicLong cursor = new AtomicLong();
+	private AtomicInteger attempt = new AtomicInteger();
+	private AtomicLong reconnectCount = new AtomicLong();
+	private AtomicLong reconciliationCount = new AtomicLong();
+	private long maxGapSec = Long.parseLong(Utils.getProperty("eventMaxGapSec", "300"));
+	private int bufferSize = Integer.parseInt(Utils.getProperty("eventBufferSize", "256"));
+	private long reconnectDelayMs = Long.parseLong(Utils.getProperty("eventReconnectDelayMs", "1000"));
+	private volatile EventsResultCallback callback;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dockerClient
+	 * @param consumer
+	 *            logic which processes the events
+	 * @param reconciliation
+	 *            logic which is executed when some events might have been lost
+	 */
+	public EventSubscription(DockerClient dockerClient, Consumer<Event> consumer, Runnable reconciliation) {
+		this(getEventSource(dockerClient), consumer, reconciliation);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param eventSource
+	 *            provides the docker events
+	 * @param consumer
+	 *            logic which processes the events
+	 * @param reconciliation
+	 *            logic which is executed when some events might have been lost
+	 */
+	public EventSubscription(EventSource eventSource, Consumer<Event> consumer, Runnable reconciliation) {
+		this.eventSource = eventSource;
+		this.consumer = consumer;
+		this.reconciliation = reconciliation;
+		this.supervisor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "docker-events-supervisor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Subscribes to the events starting from now
+	 */
+	public void start() {
+		start(now());
+	}
+
+	/**
+	 * Subscribes to the events starting from the indicated time
+	 *
+	 * @param since
+	 *            time in seconds
+	 */
+	public void start(long since) {
+		stopped = false;
+		cursor.set(since);
+		connect();
+	}
+
+	/**
+	 * Closes the subscription
+	 */
+	public void stop() {
+		stopped = true;
+		supervisor.shutdownNow();
+		EventsResultCallback cb = callback;
+		if (cb != null) {
+			try {
+				cb.close();
+			} catch (Exception ex) {
+				LOG.warn("Could not close the event subscription: " + ex);
+			}
+		}
+	}
+
+	/**
+	 * Time in seconds of the last event that we have received
+	 *
+	 * @return
+	 */
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * Number of reconnects since the start
+	 *
+	 * @return
+	 */
+	public long getReconnectCount() {
+		return reconnectCount.get();
+	}
+
+	/**
+	 * Number of reconciliations because the gap could not be bridged
+	 *
+	 * @return
+	 */
+	public long getReconciliationCount() {
+		return reconciliationCount.get();
+	}
+
+	/**
+	 * Opens the live event stream from the cursor
+	 */
+	private void connect() {
+		if (stopped) {
+			return;
+		}
+		long since = cursor.get();
+		try {
+			callback = eventSource.events(since, null, new SupervisedCallback());
+			// the delay only grows as long as we can not connect
+			attempt.set(0);
+			LOG.info("Subscribed to the docker events since " + since);
+		} catch (Exception ex) {
+			LOG.error("Could not subscribe to the docker events", ex);
+			scheduleReconnect();
+		}
+	}
+
+	/**
+	 * Replays the missing events and opens the live event stream again
+	 */
+	private void resume() {
+		if (stopped) {
+			return;
+		}
+		long since = cursor.get();
+		long until = now();
+		try {
+			if (until - since > maxGapSec) {
+				LOG.warn("The docker events since " + since + " can not be bridged: the gap is too long");
+				reconcile(until);
+			} else {
+				int count = replay(since, until);
+				LOG.info("Replayed " + count + " docker events since " + since);
+				if (count >= bufferSize) {
+					LOG.warn("The docker events since " + since + " can not be bridged: some events might be lost");
+					reconcile(until);
+				} else {
+					cursor.accumulateAndGet(until, Math::max);
+				}
+			}
+			connect();
+		} catch (Exception ex) {
+			LOG.error("Could not resume the docker events since " + since, ex);
+			scheduleReconnect();
+		}
+	}
+
+	/**
+	 * Reads the events in the indicated interval
+	 *
+	 * @param since
+	 * @param until
+	 * @return number of events
+	 * @throws Exception
+	 */
+	private int replay(long since, long until) throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		AtomicLong errors = new AtomicLong();
+		EventsResultCallback cb = eventSource.events(since, until, new EventsResultCallback() {
+			@Override
+			public void onNext(Event evt) {
+				count.incrementAndGet();
+				forward(evt);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				errors.incrementAndGet();
+				super.onError(throwable);
+			}
+		});
+		if (!cb.awaitCompletion(REPLAY_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+			cb.close();
+			throw new IllegalStateException("Timeout while replaying the docker events");
+		}
+		if (errors.get() > 0) {
+			throw new IllegalStateException("The replay of the docker events has failed");
+		}
+		return count.get();
+	}
+
+	private void reconcile(long until) {
+		reconciliationCount.incrementAndGet();
+		reconciliation.run();
+		cursor.set(until);
+	}
+
+	private void forward(Event evt) {
+		if (evt.getTime() != null) {
+			cursor.accumulateAndGet(evt.getTime(), Math::max);
+		}
+		consumer.accept(evt);
+	}
+
+	private void scheduleReconnect() {
+		if (stopped) {
+			return;
+		}
+		long delay = Math.min(MAX_DELAY_MS, reconnectDelayMs << Math.min(attempt.getAndIncrement(), 6));
+		reconnectCount.incrementAndGet();
+		LOG.warn("The docker event stream has been interrupted: reconnecting in " + delay + " ms");
+		supervisor.schedule(this::resume, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * Reads the events from the docker daemon
+	 *
+	 * @param dockerClient
+	 * @return
+	 */
+	private static EventSource getEventSource(DockerClient dockerClient) {
+		return (since, until, callback) -> {
+			EventsCmd cmd = dockerClient.eventsCmd().withSince(String.valueOf(since));
+			if (until != null) {
+				cmd.withUntil(String.valueOf(until));
+			}
+			return cmd.exec(callback);
+		};
+	}
+
+	/**
+	 * Provides the docker events
+	 */
+	public interface EventSource {
+		/**
+		 * Streams the events to the callback
+		 *
+		 * @param since
+		 *            time in seconds
+		 * @param until
+		 *            time in seconds or null for the live events
+		 * @param callback
+		 * @return the callback
+		 */
+		EventsResultCallback events(long since, Long until, EventsResultCallback callback);
+	}
+
+	/**
+	 * Live event stream which triggers a reconnect when it ends
+	 */
+	private class SupervisedCallback extends EventsResultCallback {
+		private AtomicBoolean ended = new AtomicBoolean(false);
+
+		@Override
+		public void onNext(Event evt) {
+			attempt.set(0);
+			forward(evt);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			super.onError(throwable);
+			if (!stopped) {
+				LOG.error("The docker event stream has failed", throwable);
+			}
+			ended();
+		}
+
+		@Override
+		public void onComplete() {
+			super.onComplete();
+			ended();
+		}
+
+		private void ended() {
+			if (ended.compareAndSet(false, true)) {
+				scheduleReconnect();
+			}
+		}
+	}
+
+}
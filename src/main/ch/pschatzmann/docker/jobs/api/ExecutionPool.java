@@ -0,0 +1,376 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import ch.pschatzmann.docker.jobs.model.Job;
+import ch.pschatzmann.docker.jobs.model.Utils;
+
+/**
+ * Execution layer between the scheduler and Job.run. The jobs are queued in a
+ * bounded queue and are started in the order of their submission as soon as
+ * the global limit, the limit per container and the limit per executor type
+ * allow it. Jobs which do not fit into the queue are rejected.
+ *
+ * The waiting jobs are kept in one queue per container and executor type. The
+ * queues of an executor type are sorted by the submission of their first job,
+ * so we only need to look at the first job of each queue and we can skip the
+ * executor types and containers which are at their limit.
+ *
+ * By default at most maxJobs (20) jobs are running and jobQueueSize (1000)
+ * jobs are waiting. The limits per container (maxJobsPerContainer) and per
+ * executor type (maxJobsPerExecutorType) are not active unless they are set to
+ * a value greater than 0. The limit per executor type can be defined for each
+ * type with maxJobsPerExecutorType.&lt;type&gt; (e.g.
+ * maxJobsPerExecutorType.Maven). maxJobsPerExecutorType is used for the types
+ * without their own limit.
+ *
+ * The jobs can optionally be executed on virtual threads if the JDK supports
+ * them (virtualThreads=true).
+ *
+ * @author pschatzmann
+ *
+ */
+public class ExecutionPool implements Executor {
+	private static final Logger LOG = Logger.getLogger(ExecutionPool.class);
+	private int maxJobs;
+	private int maxJobsPerContainer;
+	private int maxJobsPerExecutorType;
+	private int queueSize;
+	private Map<String, Lane> lanes = new HashMap<String, Lane>();
+	private Map<String, TreeSet<Lane>> lanesByExecutorType = new HashMap<String, TreeSet<Lane>>();
+	private int queued = 0;
+	private long sequence = 0;
+	private boolean stopped = false;
+	private Map<String, Integer> runningPerContainer = new HashMap<String, Integer>();
+	private Map<String, Integer> runningPerExecutorType = new HashMap<String, Integer>();
+	private Map<String, Integer> maxJobsPerType = new HashMap<String, Integer>();
+	private int running = 0;
+	private ExecutorService threads;
+	private AtomicLong submittedCount = new AtomicLong();
+	private AtomicLong rejectedCount = new AtomicLong();
+	private AtomicLong completedCount = new AtomicLong();
+
+	/**
+	 * Default constructor which takes the limits from the configuration
+	 */
+	public ExecutionPool() {
+		this(Integer.parseInt(Utils.getProperty("maxJobs", "20")),
+				Integer.parseInt(Utils.getProperty("maxJobsPerContainer", "0")),
+				Integer.parseInt(Utils.getProperty("maxJobsPerExecutorType", "0")),
+				Integer.parseInt(Utils.getProperty("jobQueueSize", "1000")),
+				Boolean.parseBoolean(Utils.getProperty("virtualThreads", "false")));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxJobs
+	 *            maximum number of jobs which are running in parallel
+	 * @param maxJobsPerContainer
+	 *            maximum number of running jobs of the same container (0 for
+	 *            unlimited)
+	 * @param maxJobsPerExecutorType
+	 *            maximum number of running jobs with the same executor (0 for
+	 *            unlimited)
+	 * @param queueSize
+	 *            maximum number of waiting jobs
+	 * @param virtualThreads
+	 *            use virtual threads if they are available
+	 */
+	public ExecutionPool(int maxJobs, int maxJobsPerContainer, int maxJobsPerExecutorType, int queueSize,
+			boolean virtualThreads) {
+		this.maxJobs = maxJobs;
+		this.maxJobsPerContainer = maxJobsPerContainer;
+		this.maxJobsPerExecutorType = maxJobsPerExecutorType;
+		this.queueSize = queueSize;
+		this.threads = virtualThreads ? createVirtualThreads() : null;
+		if (this.threads == null) {
+			this.threads = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "job");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Queues the job for the execution
+	 *
+	 * @param job
+	 */
+	@Override
+	public void execute(Runnable job) {
+		synchronized (this) {
+			if (stopped) {
+				rejectedCount.incrementAndGet();
+				throw new RejectedExecutionException("The execution pool has been stopped: " + job + " is not executed");
+			}
+			if (queued >= queueSize) {
+				rejectedCount.incrementAndGet();
+				throw new RejectedExecutionException("The job queue is full: " + job + " is not executed");
+			}
+			submittedCount.incrementAndGet();
+			String container = getContainer(job);
+			String executorType = getExecutorType(job);
+			String key = container + "\t" + executorType;
+			Lane lane = lanes.get(key);
+			if (lane == null) {
+				lane = new Lane(container, executorType);
+				lanes.put(key, lane);
+			}
+			if (lane.jobs.isEmpty()) {
+				lane.jobs.add(new Waiting(job, sequence++));
+				getLanes(executorType).add(lane);
+			} else {
+				lane.jobs.add(new Waiting(job, sequence++));
+			}
+			queued++;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Starts all waiting jobs which are within the limits
+	 */
+	private synchronized void dispatch() {
+		while (running < maxJobs) {
+			Lane lane = nextLane();
+			if (lane == null) {
+				break;
+			}
+			// the lane is sorted by its first job: we need to sort it again
+			TreeSet<Lane> typeLanes = getLanes(lane.executorType);
+			typeLanes.remove(lane);
+			Runnable job = lane.jobs.poll().job;
+			if (lane.jobs.isEmpty()) {
+				lanes.remove(lane.container + "\t" + lane.executorType);
+			} else {
+				typeLanes.add(lane);
+			}
+			queued--;
+			String container = lane.container;
+			String executorType = lane.executorType;
+			running++;
+			add(runningPerContainer, container, 1);
+			add(runningPerExecutorType, executorType, 1);
+			try {
+				threads.execute(() -> run(job, container, executorType));
+			} catch (RejectedExecutionException ex) {
+				// the pool has been stopped
+				running--;
+				add(runningPerContainer, container, -1);
+				add(runningPerExecutorType, executorType, -1);
+				rejectedCount.incrementAndGet();
+				LOG.warn("The job " + job + " could not be started: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Determines the queue with the oldest job which can be started. The
+	 * executor types at their limit are skipped and within an executor type we
+	 * only need to skip the containers which have running jobs.
+	 * 
+	 * @return null if no job can be started
+	 */
+	private Lane nextLane() {
+		Lane result = null;
+		for (Entry<String, TreeSet<Lane>> e : lanesByExecutorType.entrySet()) {
+			if (isBelow(get(runningPerExecutorType, e.getKey()), getMaxJobsPerExecutorType(e.getKey()))) {
+				for (Lane lane : e.getValue()) {
+					if (result != null && lane.first() > result.first()) {
+						break;
+					}
+					if (isBelow(get(runningPerContainer, lane.container), maxJobsPerContainer)) {
+						result = lane;
+						break;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private TreeSet<Lane> getLanes(String executorType) {
+		TreeSet<Lane> result = lanesByExecutorType.get(executorType);
+		if (result == null) {
+			result = new TreeSet<Lane>((a, b) -> Long.compare(a.first(), b.first()));
+			lanesByExecutorType.put(executorType, result);
+		}
+		return result;
+	}
+
+	private static boolean isBelow(int count, int max) {
+		return max <= 0 || count < max;
+	}
+
+	private void run(Runnable job, String container, String executorType) {
+		try {
+			job.run();
+		} catch (Exception ex) {
+			LOG.error("The job " + job + " has failed", ex);
+		} finally {
+			synchronized (this) {
+				running--;
+				add(runningPerContainer, container, -1);
+				add(runningPerExecutorType, executorType, -1);
+			}
+			completedCount.incrementAndGet();
+			dispatch();
+		}
+	}
+
+	/**
+	 * Defines the maximum number of running jobs for the indicated executor type
+	 *
+	 * @param executorType
+	 * @param max
+	 */
+	public synchronized void setMaxJobsPerExecutorType(String executorType, int max) {
+		maxJobsPerType.put(executorType, max);
+	}
+
+	/**
+	 * Determines the maximum number of running jobs for the indicated executor
+	 * type
+	 *
+	 * @param executorType
+	 * @return
+	 */
+	public synchronized int getMaxJobsPerExecutorType(String executorType) {
+		if (executorType == null) {
+			return maxJobsPerExecutorType;
+		}
+		Integer result = maxJobsPerType.get(executorType);
+		if (result == null) {
+			result = Integer.parseInt(Utils.getProperty("maxJobsPerExecutorType." + executorType,
+					String.valueOf(maxJobsPerExecutorType)));
+			maxJobsPerType.put(executorType, result);
+		}
+		return result;
+	}
+
+	private static int get(Map<String, Integer> map, String key) {
+		Integer result = key == null ? null : map.get(key);
+		return result == null ? 0 : result;
+	}
+
+	private static void add(Map<String, Integer> map, String key, int delta) {
+		if (key != null) {
+			int value = get(map, key) + delta;
+			if (value <= 0) {
+				map.remove(key);
+			} else {
+				map.put(key, value);
+			}
+		}
+	}
+
+	private static String getContainer(Runnable job) {
+		return job instanceof Job && ((Job) job).getOwner() != null ? ((Job) job).getOwner().getId() : null;
+	}
+
+	private static String getExecutorType(Runnable job) {
+		return job instanceof Job ? ((Job) job).getExecutorType() : null;
+	}
+
+	/**
+	 * Determines the virtual thread executor with reflection so that we can
+	 * still run on Java 8
+	 *
+	 * @return null if virtual threads are not supported
+	 */
+	private static ExecutorService createVirtualThreads() {
+		try {
+			ExecutorService result = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+			LOG.info("The jobs are executed on virtual threads");
+			return result;
+		} catch (Exception ex) {
+			LOG.warn("Virtual threads are not supported by this JDK: we use platform threads");
+			return null;
+		}
+	}
+
+	/**
+	 * Stops the execution of the waiting jobs. New jobs are rejected.
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopped = true;
+			lanes.clear();
+			lanesByExecutorType.clear();
+			queued = 0;
+		}
+		threads.shutdown();
+	}
+
+	public synchronized int getRunningCount() {
+		return running;
+	}
+
+	public synchronized int getQueuedCount() {
+		return queued;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * Waiting jobs of the same container and executor type
+	 */
+	private static class Lane {
+		private final String container;
+		private final String executorType;
+		private final LinkedList<Waiting> jobs = new LinkedList<Waiting>();
+
+		Lane(String container, String executorType) {
+			this.container = container;
+			this.executorType = executorType;
+		}
+
+		long first() {
+			return jobs.getFirst().sequence;
+		}
+	}
+
+	/**
+	 * Job with the sequence of its submission
+	 */
+	private static class Waiting {
+		private final Runnable job;
+		private final long sequence;
+
+		Waiting(Runnable job, long sequence) {
+			this.job = job;
+			this.sequence = sequence;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "running=" + getRunningCount() + " queued=" + getQueuedCount() + " submitted=" + getSubmittedCount()
+				+ " completed=" + getCompletedCount() + " rejected=" + getRejectedCount();
+	}
+
+}
@@ -0,0 +1,177 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent store of the time of the last execution per job. The executions
+ * are appended to a file so that recording them is cheap. When the file
+ * contains too many outdated records it is compacted: we write the current
+ * state to a new file which replaces the old one.
+ *
+ * @author pschatzmann
+ *
+ */
+public class FireStore {
+	private static final Logger LOG = Logger.getLogger(FireStore.class);
+	private static final int MIN_RECORDS_FOR_COMPACTION = 1000;
+	private File file;
+	private Map<String, Long> lastFire = new ConcurrentHashMap<String, Long>();
+	private Writer writer;
+	private int appendCount = 0;
+
+	/**
+	 * Constructor which loads the existing records
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public FireStore(File file) throws IOException {
+		this.file = file;
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		load();
+		compact();
+	}
+
+	/**
+	 * Determines the key of a job. The same job can be scheduled with different
+	 * schedules, so the schedule is part of the key.
+	 *
+	 * @param containerName
+	 * @param jobName
+	 * @param schedule
+	 * @return
+	 */
+	public static String getKey(String containerName, String jobName, String schedule) {
+		return getKey(containerName, jobName) + "/" + schedule;
+	}
+
+	/**
+	 * Determines the key of a job which was used before the schedule was part
+	 * of the key
+	 *
+	 * @param containerName
+	 * @param jobName
+	 * @return
+	 */
+	public static String getKey(String containerName, String jobName) {
+		return containerName + "/" + jobName;
+	}
+
+	/**
+	 * Records the execution of a job. After close the execution is only kept in
+	 * memory.
+	 *
+	 * @param key
+	 * @param time
+	 *            time in ms
+	 */
+	public synchronized void record(String key, long time) {
+		lastFire.merge(key, time, Math::max);
+		if (writer == null) {
+			LOG.debug("The store is closed: the execution of " + key + " is not saved");
+			return;
+		}
+		try {
+			writer.write(key + "\t" + time + "\n");
+			writer.flush();
+			if (++appendCount > Math.max(MIN_RECORDS_FOR_COMPACTION, lastFire.size() * 2)) {
+				compact();
+			}
+		} catch (IOException ex) {
+			LOG.error("Could not record the execution of " + key + " in " + file, ex);
+		}
+	}
+
+	/**
+	 * Provides the time of the last execution
+	 *
+	 * @param key
+	 * @return time in ms or null if the job was never executed
+	 */
+	public Long getLastFire(String key) {
+		return lastFire.get(key);
+	}
+
+	public int size() {
+		return lastFire.size();
+	}
+
+	/**
+	 * Closes the file
+	 */
+	public synchronized void close() {
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException ex) {
+			LOG.warn("Could not close " + file + ": " + ex);
+		}
+	}
+
+	/**
+	 * Replaces the file with the current state
+	 *
+	 * @throws IOException
+	 */
+	synchronized void compact() throws IOException {
+		close();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			for (Entry<String, Long> e : lastFire.entrySet()) {
+				out.write(e.getKey() + "\t" + e.getValue() + "\n");
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		appendCount = 0;
+	}
+
+	/**
+	 * Reads the records. Incomplete lines from an interrupted write are
+	 * ignored.
+	 *
+	 * @throws IOException
+	 */
+	private void load() throws IOException {
+		if (file.exists()) {
+			try (BufferedReader in = new BufferedReader(
+					new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					int pos = line.lastIndexOf('\t');
+					if (pos > 0) {
+						try {
+							lastFire.merge(line.substring(0, pos), Long.parseLong(line.substring(pos + 1)), Math::max);
+						} catch (NumberFormatException ex) {
+							LOG.warn("Ignoring the invalid record '" + line + "' in " + file);
+						}
+					}
+				}
+			}
+			LOG.info("Loaded the last execution of " + lastFire.size() + " jobs from " + file);
+		}
+	}
+
+}
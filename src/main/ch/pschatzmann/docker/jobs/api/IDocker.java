@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 
+import ch.pschatzmann.docker.jobs.model.Container;
 import ch.pschatzmann.docker.jobs.model.JobDestination;
 import ch.pschatzmann.docker.jobs.model.Model;
 
@@ -19,6 +20,17 @@ public interface IDocker {
 	 */
 	void loadContainers(Model model, String regexName) throws IOException;
 
+	/**
+	 * Reads the indicated Docker Container and adds it to our scheduling data
+	 * model. If the container is already part of the model we just return it.
+	 * 
+	 * @param model
+	 * @param id
+	 * @return
+	 * @throws IOException
+	 */
+	Container loadContainer(Model model, String id) throws IOException;
+
 	/**
 	 * Subscribes to Docker Events. For new containers we schedule the new jobs
 	 * automatically
@@ -65,4 +77,9 @@ public interface IDocker {
 	 */
 	public Collection<LogEntry> getLogsForContainer(String containerId, Date from, int timeOutInSec);
 
+	/**
+	 * Saves the state which is needed for a fast restart
+	 */
+	void saveSnapshot();
+
 }
@@ -2,9 +2,17 @@ package ch.pschatzmann.docker.jobs.api;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.Executor;
 
 import ch.pschatzmann.docker.jobs.model.Job;
 
+/**
+ * Scheduler which executes the jobs. The schedules use the cron syntax with an
+ * optional leading seconds field.
+ * 
+ * @author pschatzmann
+ *
+ */
 public interface IScheduler {
 
 	/**
@@ -17,6 +25,19 @@ public interface IScheduler {
 
 	void deschedule(String id);
 
+	/**
+	 * Executes the job right away with the same executor and limits as the
+	 * scheduled jobs
+	 * @param job
+	 */
+	void execute(Job job);
+
+	/**
+	 * Provides the executor which executes the due jobs
+	 * @return
+	 */
+	Executor getExecutor();
+
 	void start();
 
 	void stop();
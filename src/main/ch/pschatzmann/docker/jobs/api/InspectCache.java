@@ -0,0 +1,251 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import ch.pschatzmann.docker.jobs.model.Attributes;
+import ch.pschatzmann.docker.jobs.model.Container;
+import ch.pschatzmann.docker.jobs.model.Model;
+import ch.pschatzmann.docker.jobs.model.Volume;
+
+/**
+ * Cache for the translated result of the container inspection. The labels and
+ * mounts can not change during the life of a container, so we can keep them by
+ * the container id and the creation time. The least recently used entries are
+ * removed when the cache is full.
+ *
+ * The cache can be saved to a compact binary file so that after a restart we
+ * only need to inspect the containers which have been created in the meantime.
+ *
+ * @author pschatzmann
+ *
+ */
+public class InspectCache {
+	private static final Logger LOG = Logger.getLogger(InspectCache.class);
+	private static final int SNAPSHOT_VERSION = 1;
+	private int maxSize;
+	private Map<String, CacheEntry> cache;
+	private long hitCount = 0;
+	private long missCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSize
+	 *            maximum number of containers
+	 */
+	public InspectCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CacheEntry> eldest) {
+				return size() > InspectCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Provides a new Container from the cached information
+	 *
+	 * @param model
+	 * @param id
+	 * @param created
+	 *            creation time from the container list or null if it is not
+	 *            known
+	 * @return null if the container is not available in the cache
+	 */
+	public synchronized Container get(Model model, String id, Long created) {
+		CacheEntry entry = cache.get(id);
+		if (entry == null || (created != null && entry.created != null && !created.equals(entry.created))) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		// the attributes are immutable and can be shared
+		Container result = new Container(model, entry.attributes);
+		for (Volume v : entry.mounts) {
+			result.addMount(new Volume(v.getName(), v.getSource(), v.getDestination(), v.getBackup()));
+		}
+		return result;
+	}
+
+	/**
+	 * Records the translated container
+	 *
+	 * @param id
+	 * @param created
+	 * @param container
+	 */
+	public synchronized void put(String id, Long created, Container container) {
+		cache.put(id, new CacheEntry(created, Attributes.of(container.getAttributes()),
+				new ArrayList<Volume>(container.getMounts())));
+	}
+
+	/**
+	 * Removes the container from the cache
+	 *
+	 * @param id
+	 */
+	public synchronized void evict(String id) {
+		cache.remove(id);
+	}
+
+	/**
+	 * Removes the containers which do not exist any more
+	 *
+	 * @param ids
+	 *            ids of the existing containers
+	 */
+	public synchronized void retain(Set<String> ids) {
+		Iterator<String> it = cache.keySet().iterator();
+		while (it.hasNext()) {
+			if (!ids.contains(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writes all entries to the indicated file. The file is replaced only when
+	 * the new content has been written completely.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeInt(cache.size());
+			for (Entry<String, CacheEntry> e : cache.entrySet()) {
+				CacheEntry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.created == null ? -1 : entry.created);
+				out.writeInt(entry.attributes.size());
+				for (Entry<String, String> attribute : entry.attributes.entrySet()) {
+					writeString(out, attribute.getKey());
+					writeString(out, attribute.getValue());
+				}
+				out.writeInt(entry.mounts.size());
+				for (Volume v : entry.mounts) {
+					writeString(out, v.getName());
+					writeString(out, v.getSource());
+					writeString(out, v.getDestination());
+					out.writeBoolean(v.getBackup() == null || v.getBackup());
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOG.info("Saved " + cache.size() + " containers to " + file);
+	}
+
+	/**
+	 * Adds the entries from a file which was written with save. Invalid files
+	 * are ignored.
+	 *
+	 * @param file
+	 * @return number of loaded containers
+	 */
+	public synchronized int load(File file) {
+		int result = 0;
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (in.readInt() != SNAPSHOT_VERSION) {
+					LOG.warn("Ignoring the snapshot " + file + " with an unsupported version");
+					return 0;
+				}
+				int count = in.readInt();
+				for (int j = 0; j < count; j++) {
+					String id = in.readUTF();
+					long created = in.readLong();
+					int attributeCount = in.readInt();
+					Map<String, String> attributes = new HashMap<String, String>();
+					for (int k = 0; k < attributeCount; k++) {
+						attributes.put(readString(in), readString(in));
+					}
+					int mountCount = in.readInt();
+					Collection<Volume> mounts = new ArrayList<Volume>();
+					for (int k = 0; k < mountCount; k++) {
+						mounts.add(new Volume(readString(in), readString(in), readString(in), in.readBoolean()));
+					}
+					cache.put(id, new CacheEntry(created < 0 ? null : created, Attributes.of(attributes), mounts));
+					result++;
+				}
+				LOG.info("Loaded " + result + " containers from " + file);
+			} catch (IOException ex) {
+				LOG.warn("Could not load the snapshot " + file + ": " + ex);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the string with its length: labels can be longer than the limit
+	 * of writeUTF
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private static class CacheEntry {
+		private Long created;
+		private Map<String, String> attributes;
+		private Collection<Volume> mounts;
+
+		CacheEntry(Long created, Map<String, String> attributes, Collection<Volume> mounts) {
+			this.created = created;
+			this.attributes = attributes;
+			this.mounts = mounts;
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Groups the scheduled jobs by their normalized schedule. For each distinct
+ * schedule only one trigger is registered in the underlying scheduler and
+ * when it fires it submits all member jobs to the executor. So the number of
+ * timers is proportional to the number of distinct schedules and not to the
+ * number of jobs.
+ *
+ * @author pschatzmann
+ *
+ */
+public class SharedTriggers {
+	private static final Logger LOG = Logger.getLogger(SharedTriggers.class);
+	private Function<Trigger, String> register;
+	private Consumer<String> unregister;
+	private Executor executor;
+	private Map<String, Trigger> triggers = new HashMap<String, Trigger>();
+	private Map<String, Trigger> triggerByMemberId = new HashMap<String, Trigger>();
+	private AtomicLong idCounter = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param register
+	 *            registers a trigger in the scheduler and returns its id
+	 * @param unregister
+	 *            removes the trigger with the indicated id from the scheduler
+	 * @param executor
+	 *            executes the jobs
+	 */
+	public SharedTriggers(Function<Trigger, String> register, Consumer<String> unregister, Executor executor) {
+		this.register = register;
+		this.unregister = unregister;
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds the job to the trigger of its schedule. The trigger is registered
+	 * if it does not exist yet.
+	 *
+	 * @param schedule
+	 * @param job
+	 * @return id of the member which can be used to remove the job again
+	 */
+	public synchronized String add(String schedule, Runnable job) {
+		String key = normalize(schedule);
+		Trigger trigger = triggers.get(key);
+		if (trigger == null) {
+			trigger = new Trigger(key);
+			trigger.id = register.apply(trigger);
+			triggers.put(key, trigger);
+			LOG.debug("New trigger for the schedule '" + key + "'");
+		}
+		String memberId = "job-" + idCounter.incrementAndGet();
+		trigger.members.put(memberId, job);
+		triggerByMemberId.put(memberId, trigger);
+		return memberId;
+	}
+
+	/**
+	 * Removes the job from its trigger. The trigger is unregistered when it
+	 * does not have any members any more.
+	 *
+	 * @param memberId
+	 */
+	public synchronized void remove(String memberId) {
+		Trigger trigger = triggerByMemberId.remove(memberId);
+		if (trigger != null) {
+			trigger.members.remove(memberId);
+			if (trigger.members.isEmpty()) {
+				triggers.remove(trigger.schedule);
+				unregister.accept(trigger.id);
+				LOG.debug("The trigger for the schedule '" + trigger.schedule + "' has been removed");
+			}
+		}
+	}
+
+	/**
+	 * Removes all jobs and triggers
+	 */
+	public synchronized void clear() {
+		for (String memberId : new ArrayList<String>(triggerByMemberId.keySet())) {
+			remove(memberId);
+		}
+	}
+
+	/**
+	 * Number of scheduled jobs
+	 *
+	 * @return
+	 */
+	public synchronized int getMemberCount() {
+		return triggerByMemberId.size();
+	}
+
+	/**
+	 * Number of distinct schedules
+	 *
+	 * @return
+	 */
+	public synchronized int getTriggerCount() {
+		return triggers.size();
+	}
+
+	/**
+	 * Normalizes the schedule so that equivalent spellings share the same
+	 * trigger
+	 *
+	 * @param schedule
+	 * @return
+	 */
+	public static String normalize(String schedule) {
+		return schedule.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/**
+	 * Trigger for all jobs with the same schedule
+	 */
+	public class Trigger implements Runnable {
+		private String id;
+		private String schedule;
+		private Map<String, Runnable> members = new ConcurrentHashMap<String, Runnable>();
+
+		Trigger(String schedule) {
+			this.schedule = schedule;
+		}
+
+		public String getSchedule() {
+			return schedule;
+		}
+
+		/**
+		 * Submits all member jobs to the executor
+		 */
+		@Override
+		public void run() {
+			List<Runnable> jobs = new ArrayList<Runnable>(members.values());
+			for (Runnable job : jobs) {
+				try {
+					executor.execute(job);
+				} catch (Exception ex) {
+					LOG.error("Could not execute the job " + job, ex);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return schedule;
+		}
+	}
+
+}
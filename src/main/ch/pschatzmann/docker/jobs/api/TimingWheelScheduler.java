@@ -0,0 +1,379 @@
+package ch.pschatzmann.docker.jobs.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import ch.pschatzmann.docker.jobs.model.Job;
+
+/**
+ * Scheduler which is based on a hierarchical timing wheel. For each job we
+ * precompute the next fire time and store the job in the wheel: the first level
+ * has one slot per second of the minute, the second level one slot per minute
+ * of the hour, the third level one slot per hour of the day and the last level
+ * one slot per day of the year. The jobs are moved to the lower level when
+ * their minute, hour or day starts. So on each tick we only need to process
+ * the jobs which are due. Jobs with the same schedule share a single entry in
+ * the wheel.
+ *
+ * The ticker waits for the absolute time of the next second, so delays do not
+ * add up. The schedules can contain an optional seconds field.
+ *
+ * This class can be used as replacement of the CronScheduler.
+ *
+ * @author pschatzmann
+ *
+ */
+public class TimingWheelScheduler implements IScheduler {
+	private static final Logger LOG = Logger.getLogger(TimingWheelScheduler.class);
+	private static final long TICK_MS = 1000;
+	// number of slots and number of ticks per slot of the levels: seconds,
+	// minutes, hours and days
+	private static final int[] SLOTS = { 60, 60, 24, 366 };
+	private static final long[] TICKS_PER_SLOT = { 1, 60, 60 * 60, 24 * 60 * 60 };
+	private static final int MAX_CATCH_UP_TICKS = 300;
+	private static final int MAX_DATES = 100000;
+	private List<List<Set<Entry>>> wheels = createWheels();
+	private Set<Entry> overflow = new LinkedHashSet<Entry>();
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	private AtomicLong idCounter = new AtomicLong();
+	private long currentTick = System.currentTimeMillis() / TICK_MS;
+	private SharedTriggers triggers;
+	private Executor executor;
+	private volatile Thread ticker;
+
+	public TimingWheelScheduler() {
+		this(new ExecutionPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param executor
+	 *            executes the jobs when they are due
+	 */
+	public TimingWheelScheduler(Executor executor) {
+		this.executor = executor;
+		triggers = new SharedTriggers(trigger -> scheduleTask(trigger.getSchedule(), trigger), this::descheduleTask,
+				executor);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#getCountOfScheduledJobs()
+	 */
+	@Override
+	public synchronized int getCountOfScheduledJobs() {
+		return triggers.getMemberCount();
+	}
+
+	/**
+	 * Return the number of distinct schedules which are managed in the wheel
+	 *
+	 * @return
+	 */
+	public synchronized int getCountOfTriggers() {
+		return entries.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#schedule(java.lang.String,
+	 * ch.pschatzmann.docker.jobs.model.Job)
+	 */
+	@Override
+	public synchronized String schedule(String schedule, Job job) {
+		return triggers.add(schedule, job);
+	}
+
+	/**
+	 * Schedules a task directly without sharing it with other jobs
+	 *
+	 * @param schedule
+	 * @param task
+	 * @return id of the task
+	 */
+	public synchronized String scheduleTask(String schedule, Runnable task) {
+		Entry entry = new Entry("wheel-" + idCounter.incrementAndGet(), schedule, task);
+		entry.tick = nextTick(entry.schedule, currentTick);
+		insert(entry);
+		entries.put(entry.id, entry);
+		return entry.id;
+	}
+
+	/**
+	 * Removes the task
+	 *
+	 * @param id
+	 * @return false if the task does not exist
+	 */
+	public synchronized boolean descheduleTask(String id) {
+		Entry entry = entries.remove(id);
+		if (entry != null && entry.slot != null) {
+			entry.slot.remove(entry);
+			entry.slot = null;
+		}
+		return entry != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#deschedule(java.lang.String)
+	 */
+	@Override
+	public synchronized void deschedule(String id) {
+		triggers.remove(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#execute(ch.pschatzmann.docker.
+	 * jobs.model.Job)
+	 */
+	@Override
+	public void execute(Job job) {
+		executor.execute(job);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#getExecutor()
+	 */
+	@Override
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#start()
+	 */
+	@Override
+	public synchronized void start() {
+		if (ticker == null) {
+			// jobs are only executed from now on
+			rebuild(System.currentTimeMillis() / TICK_MS);
+			ticker = new Thread(this::runTicker, "timing-wheel");
+			ticker.setDaemon(true);
+			ticker.start();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#stop()
+	 */
+	@Override
+	public void stop() {
+		Thread thread = ticker;
+		ticker = null;
+		if (thread != null) {
+			thread.interrupt();
+		}
+		synchronized (this) {
+			triggers.clear();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see ch.pschatzmann.docker.jobs.api.IScheduler#getDates(java.lang.String,
+	 * java.util.Date, java.util.Date)
+	 */
+	@Override
+	public Collection<Date> getDates(String schedule, Date from, Date until) {
+		return CronExpression.compile(schedule).getDates(from, until, MAX_DATES);
+	}
+
+	/**
+	 * Waits for the start of the next second and processes the due jobs
+	 */
+	private void runTicker() {
+		while (ticker == Thread.currentThread()) {
+			try {
+				long now = System.currentTimeMillis();
+				long nowTick = now / TICK_MS;
+				long lastTick = getCurrentTick();
+				if (nowTick > lastTick + MAX_CATCH_UP_TICKS || nowTick < lastTick) {
+					LOG.warn("The clock has jumped by " + (nowTick - lastTick) + " seconds: rebuilding the schedule");
+					synchronized (this) {
+						rebuild(nowTick);
+					}
+				} else if (nowTick > lastTick) {
+					advance();
+				} else {
+					Thread.sleep(Math.min(TICK_MS, (lastTick + 1) * TICK_MS - now));
+				}
+			} catch (InterruptedException ex) {
+				break;
+			} catch (Exception ex) {
+				LOG.error("Could not process the scheduled jobs", ex);
+			}
+		}
+	}
+
+	private synchronized long getCurrentTick() {
+		return currentTick;
+	}
+
+	/**
+	 * Moves the wheel by one second and executes the jobs which are due
+	 */
+	private void advance() {
+		List<Entry> due = new ArrayList<Entry>();
+		synchronized (this) {
+			currentTick++;
+			for (int level = SLOTS.length - 1; level > 0; level--) {
+				if (currentTick % TICKS_PER_SLOT[level] == 0) {
+					if (level == SLOTS.length - 1) {
+						cascade(overflow);
+					}
+					cascade(getSlot(level, currentTick));
+				}
+			}
+
+			Set<Entry> slot = getSlot(0, currentTick);
+			Iterator<Entry> it = slot.iterator();
+			while (it.hasNext()) {
+				Entry entry = it.next();
+				if (entry.tick <= currentTick) {
+					it.remove();
+					due.add(entry);
+				}
+			}
+
+			// determine the next execution
+			for (Entry entry : due) {
+				entry.tick = nextTick(entry.schedule, currentTick);
+				insert(entry);
+			}
+		}
+
+		for (Entry entry : due) {
+			fire(entry);
+		}
+	}
+
+	private void fire(Entry entry) {
+		try {
+			entry.trigger.run();
+		} catch (Exception ex) {
+			LOG.error("Could not execute the jobs for " + entry.schedule, ex);
+		}
+	}
+
+	/**
+	 * Moves the entries of the slot to the right position
+	 *
+	 * @param slot
+	 */
+	private void cascade(Set<Entry> slot) {
+		List<Entry> list = new ArrayList<Entry>(slot);
+		slot.clear();
+		for (Entry entry : list) {
+			insert(entry);
+		}
+	}
+
+	/**
+	 * Recalculates all entries starting from the indicated tick
+	 *
+	 * @param tick
+	 */
+	private void rebuild(long tick) {
+		currentTick = tick;
+		for (Entry entry : entries.values()) {
+			entry.slot.remove(entry);
+			entry.tick = nextTick(entry.schedule, currentTick);
+			insert(entry);
+		}
+	}
+
+	/**
+	 * Adds the entry to the wheel which is relevant for the distance to the
+	 * current tick. Entries which are cascaded on their due tick are added to
+	 * the current second slot which is processed right after the cascading.
+	 *
+	 * @param entry
+	 */
+	private void insert(Entry entry) {
+		long delta = entry.tick - currentTick;
+		if (delta < 0) {
+			entry.tick = currentTick + 1;
+			delta = 1;
+		}
+		entry.slot = overflow;
+		for (int level = 0; level < SLOTS.length; level++) {
+			if (delta < TICKS_PER_SLOT[level] * SLOTS[level]) {
+				entry.slot = getSlot(level, entry.tick);
+				break;
+			}
+		}
+		entry.slot.add(entry);
+	}
+
+	/**
+	 * Determines the next second after the indicated tick which is matching the
+	 * schedule. Schedules which never match are kept in the overflow.
+	 *
+	 * @param schedule
+	 * @param tick
+	 * @return
+	 */
+	private static long nextTick(String schedule, long tick) {
+		long next = CronExpression.compile(schedule).next(tick * TICK_MS);
+		return next < 0 ? Long.MAX_VALUE : next / TICK_MS;
+	}
+
+	private Set<Entry> getSlot(int level, long tick) {
+		return wheels.get(level).get((int) ((tick / TICKS_PER_SLOT[level]) % SLOTS[level]));
+	}
+
+	private static List<List<Set<Entry>>> createWheels() {
+		List<List<Set<Entry>>> result = new ArrayList<List<Set<Entry>>>();
+		for (int size : SLOTS) {
+			List<Set<Entry>> wheel = new ArrayList<Set<Entry>>(size);
+			for (int j = 0; j < size; j++) {
+				wheel.add(new LinkedHashSet<Entry>());
+			}
+			result.add(wheel);
+		}
+		return result;
+	}
+
+	/**
+	 * Scheduled trigger with its next execution time
+	 */
+	private static class Entry {
+		private String id;
+		private String schedule;
+		private Runnable trigger;
+		private long tick;
+		private Set<Entry> slot;
+
+		Entry(String id, String schedule, Runnable trigger) {
+			this.id = id;
+			this.schedule = schedule;
+			this.trigger = trigger;
+		}
+	}
+
+}
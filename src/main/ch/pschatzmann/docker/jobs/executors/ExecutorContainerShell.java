@@ -17,8 +17,8 @@ public class ExecutorContainerShell implements IExecutor {
 	private static final Logger LOG = Logger.getLogger(ExecutorContainerShell.class);
 
 	@Override
-	public void execute(List<String> commands, JobDestination jobDestination, String name) {
-		
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name) {
+		boolean result = true;
 		for (String command : commands) {
 			StringBuffer sb = new StringBuffer();
 			sb.append("\n------------------ N E W   J O B ------------------");
@@ -32,14 +32,13 @@ public class ExecutorContainerShell implements IExecutor {
 
 			} catch (Exception ex) {
 				LOG.error("Could not execute the command '" + command, ex);
+				result = false;
 			}
 			sb = new StringBuffer();
 			sb.append("\n------------------ E N D ------------------");
 			LOG.info(sb);
 		}
-		
-		
-		
+		return result;
 	}
 
 }
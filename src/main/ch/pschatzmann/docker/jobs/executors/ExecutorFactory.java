@@ -1,5 +1,9 @@
 package ch.pschatzmann.docker.jobs.executors;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import ch.pschatzmann.docker.jobs.model.JobPlanner.Scenario;
 
 /**
@@ -9,17 +13,39 @@ import ch.pschatzmann.docker.jobs.model.JobPlanner.Scenario;
  */
 
 public class ExecutorFactory {
+	// executors by scenario: jobs without scenario use a temporary container
+	private static final Map<Scenario, Supplier<IExecutor>> EXECUTORS = new EnumMap<Scenario, Supplier<IExecutor>>(Scenario.class);
+	private static final Supplier<IExecutor> DEFAULT_EXECUTOR = ExecutorTempContainerShell::new;
+	private static final Map<Scenario, String> TYPES = new EnumMap<Scenario, String>(Scenario.class);
+	private static final String DEFAULT_TYPE = getType(DEFAULT_EXECUTOR);
+
+	static {
+		EXECUTORS.put(Scenario.Maven, ExecutorMaven::new);
+		EXECUTORS.put(Scenario.Central, ExecutorHostShell::new);
+		EXECUTORS.put(Scenario.Local, ExecutorContainerShell::new);
+		EXECUTORS.forEach((scenario, supplier) -> TYPES.put(scenario, getType(supplier)));
+	}
+
 	public static IExecutor getExecutor(boolean isOneSource,  Scenario scenario) {
-		IExecutor result = null;
-		if (scenario == Scenario.Maven) {
-			result = new ExecutorMaven();
-		} else if (scenario == Scenario.Central) {
-			result = new ExecutorHostShell();
-		} else if (scenario == Scenario.Local) {
-			result = new ExecutorContainerShell();
-		} else {
-			result= new ExecutorTempContainerShell();
-		}
-		return result;
+		return getSupplier(scenario).get();
+	}
+
+	/**
+	 * Determines the name of the executor which is used for the scenario: this
+	 * is the class name without the Executor prefix
+	 * @param scenario
+	 * @return
+	 */
+	public static String getExecutorType(Scenario scenario) {
+		return scenario == null || !TYPES.containsKey(scenario) ? DEFAULT_TYPE : TYPES.get(scenario);
+	}
+
+	private static Supplier<IExecutor> getSupplier(Scenario scenario) {
+		Supplier<IExecutor> result = scenario == null ? null : EXECUTORS.get(scenario);
+		return result == null ? DEFAULT_EXECUTOR : result;
+	}
+
+	private static String getType(Supplier<IExecutor> supplier) {
+		return supplier.get().getClass().getSimpleName().replaceFirst("^Executor", "");
 	}
 }
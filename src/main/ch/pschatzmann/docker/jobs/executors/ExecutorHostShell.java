@@ -19,12 +19,13 @@ public class ExecutorHostShell implements IExecutor {
 	private static final Logger LOG = Logger.getLogger(ExecutorHostShell.class);
 
 	
-	public void execute(List<String> commands, JobDestination jobDestination, String name) {
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name) {
+		boolean result = true;
 		for (String command : commands) {
 			StringBuffer sb = new StringBuffer();
 			try {
 				Process p = Runtime.getRuntime().exec(command);
-				p.waitFor();
+				int exitCode = p.waitFor();
 				sb.append("\n------------------ N E W   J O B ------------------");
 				sb.append("\n");
 				sb.append(Utils.toString(command.split(" "), " "));
@@ -44,10 +45,16 @@ public class ExecutorHostShell implements IExecutor {
 				sb.append("\n------------------ E N D ------------------");
 
 				LOG.info(sb);
+				if (exitCode != 0) {
+					LOG.error("The command '" + command + "' has failed with the exit code " + exitCode);
+					result = false;
+				}
 			} catch (Exception ex) {
 				LOG.error("Could not execute command '" + command+"'", ex);
+				result = false;
 			}
 		}
+		return result;
 	}
 
 }
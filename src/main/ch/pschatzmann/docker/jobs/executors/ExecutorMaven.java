@@ -24,7 +24,8 @@ public class ExecutorMaven implements IExecutor {
 	private static final Logger LOG = Logger.getLogger(ExecutorMaven.class);
 
 	@Override
-	public void execute(List<String> commands, JobDestination jobDestination, String name) {		
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name) {		
+		boolean result = true;
 		LOG.info("------------------ N E W   J O B ------------------");
 
 		for (String command : commands) {
@@ -34,9 +35,11 @@ public class ExecutorMaven implements IExecutor {
 				execute(sa[0], sa[1], sa[2], sa[3]);
 			} catch (Exception e) {
 				LOG.error(e, e);
+				result = false;
 			}
 		}
 		LOG.info("---------------------- E N D ----------------------");
+		return result;
 
 	}
 
@@ -18,7 +18,7 @@ public class ExecutorSimulator implements IExecutor {
 	private static Long count = 0l;
 	private static CountDownLatch latch;
 
-	public void execute(List<String> commands, JobDestination jobDestination, String name) {
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name) {
 		for (String command : commands) {
 			// Create container
 			LOG.info("Simmulate --> '" + command+"' ");
@@ -28,6 +28,7 @@ public class ExecutorSimulator implements IExecutor {
 				latch.countDown();
 			}
 		}
+		return true;
 	}
 
 	public static Long getCount() {
@@ -17,9 +17,11 @@ import ch.pschatzmann.docker.jobs.model.JobDestination;
 public class ExecutorTempContainerShell implements IExecutor {
 	private static final Logger LOG = Logger.getLogger(ExecutorTempContainerShell.class);
 
-	public void execute(List<String> commands, JobDestination jobDestination, String name) {
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name) {
+		boolean result = false;
 		Container execContainer = jobDestination.getExecutionContainer();
 		if (execContainer != null) {
+			result = true;
 			String image = execContainer.getImage();
 			Container newContainer = execContainer.getModel().createContainer(image,
 					jobDestination, "Temp-Container-" + name, "sh");
@@ -38,6 +40,7 @@ public class ExecutorTempContainerShell implements IExecutor {
 						jobDestination.getDockerClient().execute(command.split(" "), newContainer.getId());
 					} catch (Exception ex) {
 						LOG.error("Could not execute command " + command + "-" + ex, ex);
+						result = false;
 					}
 					sb = new StringBuffer();
 					sb.append("\n------------------ E N D ------------------");
@@ -49,5 +52,6 @@ public class ExecutorTempContainerShell implements IExecutor {
 				}
 			}
 		}
+		return result;
 	}
 }
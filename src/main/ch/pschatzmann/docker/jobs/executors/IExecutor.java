@@ -5,5 +5,12 @@ import java.util.List;
 import ch.pschatzmann.docker.jobs.model.JobDestination;
 
 public interface IExecutor {
-	public void execute(List<String> commands, JobDestination jobDestination, String name);
+	/**
+	 * Executes the commands
+	 * @param commands
+	 * @param jobDestination
+	 * @param name
+	 * @return true if all commands have been executed without error
+	 */
+	public boolean execute(List<String> commands, JobDestination jobDestination, String name);
 }
\ No newline at end of file
@@ -6,6 +6,8 @@ import org.apache.log4j.Logger;
 
 import ch.pschatzmann.docker.jobs.api.CronScheduler;
 import ch.pschatzmann.docker.jobs.api.DockerAPI;
+import ch.pschatzmann.docker.jobs.api.IScheduler;
+import ch.pschatzmann.docker.jobs.api.TimingWheelScheduler;
 import ch.pschatzmann.docker.jobs.model.Model;
 import ch.pschatzmann.docker.jobs.model.Utils;
 import io.undertow.Undertow;
@@ -31,7 +33,7 @@ public class Main {
 			LOG.info("Timezone="+TimeZone.getDefault());
 					
 			Utils.printScriptingInfo();
-			Model model = new Model(new CronScheduler(), new DockerAPI(), ".*");
+			Model model = new Model(createScheduler(), new DockerAPI(), ".*");
 			model.deleteWorkerContainers();
 			model.start();
 			setupShutdownHook(model);	
@@ -44,6 +46,18 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Creates the scheduler which is defined with the scheduler property: wheel
+	 * or cron4j (default)
+	 * 
+	 * @return
+	 */
+	private static IScheduler createScheduler() {
+		String scheduler = Utils.getProperty("scheduler", "cron4j");
+		LOG.info("Using the scheduler " + scheduler);
+		return "wheel".equalsIgnoreCase(scheduler) ? new TimingWheelScheduler() : new CronScheduler();
+	}
+
 	/**
 	 * We just try to stop the scheduler when java is shutting down
 	 * @param model
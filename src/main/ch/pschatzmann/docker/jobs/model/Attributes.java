@@ -0,0 +1,248 @@
+package ch.pschatzmann.docker.jobs.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable and compact storage of the container attributes. The keys and
+ * values are kept in sorted arrays. The keys, the key arrays and the values of
+ * the job labels are interned, so containers with the same labels share them.
+ *
+ * With overlay we get a view which adds some values without copying the
+ * attributes.
+ *
+ * @author pschatzmann
+ *
+ */
+public final class Attributes extends AbstractMap<String, String> {
+	private static final int MAX_POOL_SIZE = 100000;
+	private static final Map<String, String> strings = new ConcurrentHashMap<String, String>();
+	private static final Map<KeyArray, String[]> keyArrays = new ConcurrentHashMap<KeyArray, String[]>();
+	public static final Attributes EMPTY = new Attributes(new String[0], new String[0]);
+	private final String[] keys;
+	private final String[] values;
+	private Set<Entry<String, String>> entrySet;
+
+	private Attributes(String[] keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * Creates the attributes from the indicated map
+	 *
+	 * @param map
+	 * @return
+	 */
+	public static Attributes of(Map<String, String> map) {
+		if (map instanceof Attributes) {
+			return (Attributes) map;
+		}
+		if (map == null || map.isEmpty()) {
+			return EMPTY;
+		}
+		String[] keys = map.keySet().toArray(new String[map.size()]);
+		Arrays.sort(keys);
+		String[] values = new String[keys.length];
+		for (int j = 0; j < keys.length; j++) {
+			String value = map.get(keys[j]);
+			// the job labels are usually the same for many containers
+			values[j] = keys[j].startsWith("job.") ? intern(value) : value;
+		}
+		return new Attributes(internKeys(keys), values);
+	}
+
+	/**
+	 * Creates new attributes which contain the additional values
+	 *
+	 * @param additional
+	 * @return
+	 */
+	public Attributes with(Map<String, String> additional) {
+		if (additional.isEmpty()) {
+			return this;
+		}
+		Map<String, String> map = new HashMap<String, String>(this);
+		map.putAll(additional);
+		return of(map);
+	}
+
+	/**
+	 * Provides a read only view on the indicated base map with some additional
+	 * values. The base map is not copied.
+	 *
+	 * @param base
+	 * @param additional
+	 * @return
+	 */
+	public static Map<String, String> overlay(Map<String, String> base, Map<String, String> additional) {
+		return new Overlay(base, additional);
+	}
+
+	@Override
+	public String get(Object key) {
+		int pos = indexOf(key);
+		return pos < 0 ? null : values[pos];
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	private int indexOf(Object key) {
+		return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int pos = 0;
+
+						@Override
+						public boolean hasNext() {
+							return pos < keys.length;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (pos >= keys.length) {
+								throw new NoSuchElementException();
+							}
+							Entry<String, String> result = new SimpleImmutableEntry<String, String>(keys[pos],
+									values[pos]);
+							pos++;
+							return result;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private static String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		if (strings.size() > MAX_POOL_SIZE) {
+			strings.clear();
+		}
+		String result = strings.putIfAbsent(value, value);
+		return result == null ? value : result;
+	}
+
+	private static String[] internKeys(String[] keys) {
+		for (int j = 0; j < keys.length; j++) {
+			keys[j] = intern(keys[j]);
+		}
+		if (keyArrays.size() > MAX_POOL_SIZE) {
+			keyArrays.clear();
+		}
+		KeyArray key = new KeyArray(keys);
+		String[] result = keyArrays.putIfAbsent(key, keys);
+		return result == null ? keys : result;
+	}
+
+	/**
+	 * Key of the interned key arrays
+	 */
+	private static class KeyArray {
+		private final String[] keys;
+		private final int hash;
+
+		KeyArray(String[] keys) {
+			this.keys = keys;
+			this.hash = Arrays.hashCode(keys);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof KeyArray && Arrays.equals(keys, ((KeyArray) obj).keys);
+		}
+	}
+
+	/**
+	 * Read only view on a map with some additional values
+	 */
+	private static class Overlay extends AbstractMap<String, String> {
+		private final Map<String, String> base;
+		private final Map<String, String> additional;
+
+		Overlay(Map<String, String> base, Map<String, String> additional) {
+			this.base = base;
+			this.additional = additional;
+		}
+
+		@Override
+		public String get(Object key) {
+			return additional.containsKey(key) ? additional.get(key) : base.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return additional.containsKey(key) || base.containsKey(key);
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					Iterator<Entry<String, String>> first = additional.entrySet().iterator();
+					Iterator<Entry<String, String>> second = base.entrySet().stream()
+							.filter(e -> !additional.containsKey(e.getKey())).iterator();
+					return new Iterator<Entry<String, String>>() {
+						@Override
+						public boolean hasNext() {
+							return first.hasNext() || second.hasNext();
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							return first.hasNext() ? first.next() : second.next();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int result = additional.size();
+					for (String key : base.keySet()) {
+						if (!additional.containsKey(key)) {
+							result++;
+						}
+					}
+					return result;
+				}
+			};
+		}
+	}
+
+}
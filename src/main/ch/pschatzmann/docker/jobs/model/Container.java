@@ -2,18 +2,22 @@ package ch.pschatzmann.docker.jobs.model;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 
+import ch.pschatzmann.docker.jobs.api.CronExpression;
 import ch.pschatzmann.docker.jobs.api.LogEntry;
 
 /**
@@ -30,11 +34,15 @@ public class Container {
 	private String name;
 	private String image;
 	private String created;
-	private boolean deleted = false;
-	private Collection<Volume> mounts = new ArrayList<Volume>();
-	private Map<String, String> attributes = new HashMap<String, String>();
+	private volatile boolean deleted = false;
+	// the jobs and mounts are read by other threads while they are changed
+	private Collection<Volume> mounts = new CopyOnWriteArrayList<Volume>();
+	private volatile Attributes attributes = Attributes.EMPTY;
 	private Model model;
-	private Collection<Job> jobs = new ArrayList<Job>();
+	private volatile Collection<Job> jobs = new CopyOnWriteArrayList<Job>();
+	// index of the jobs by name and schedule
+	private Map<String, Job> jobIndex = new ConcurrentHashMap<String, Job>();
+	private Map<String, String> planningKey;
 
 	/**
 	 * Constructor
@@ -45,7 +53,7 @@ public class Container {
 
 	public Container(Model model, Map<String, String> attributes) {
 		this.model = model;
-		this.attributes = attributes;
+		this.attributes = Attributes.of(attributes);
 		this.setId(attributes.get("id"));
 		this.setName(attributes.get("name"));
 		this.setImage(attributes.get("image"));
@@ -77,10 +85,35 @@ public class Container {
 		this.mounts.add(volume);
 	}
 
+	/**
+	 * Provides the attributes. The map is immutable, so that it can be shared
+	 * with the other threads without copying it: put and remove throw an
+	 * UnsupportedOperationException. Use setAttribute or putAttributes to change
+	 * the attributes.
+	 * @return
+	 */
 	public Map<String, String> getAttributes() {
 		return this.attributes;
 	}
 
+	/**
+	 * Adds or replaces some attributes. The map which was returned by
+	 * getAttributes is not changed: it is replaced by a new one.
+	 * @param additional
+	 */
+	public void putAttributes(Map<String, String> additional) {
+		this.attributes = this.attributes.with(additional);
+	}
+
+	/**
+	 * Adds or replaces a single attribute
+	 * @param key
+	 * @param value
+	 */
+	public void setAttribute(String key, String value) {
+		putAttributes(Collections.singletonMap(key, value));
+	}
+
 	public boolean isDeleted() {
 		return deleted;
 	}
@@ -89,6 +122,18 @@ public class Container {
 		this.deleted = deleted;
 	}
 
+	/**
+	 * Job labels which were used to plan the jobs
+	 * @return null if the container has not been added to the model
+	 */
+	public Map<String, String> getPlanningKey() {
+		return planningKey;
+	}
+
+	public void setPlanningKey(Map<String, String> planningKey) {
+		this.planningKey = planningKey;
+	}
+
 	public Model getModel() {
 		return this.model;
 	}
@@ -127,13 +172,13 @@ public class Container {
 	}
 
 	/**
-	 * Schedule all jobs
+	 * Schedule all jobs which are not scheduled yet
 	 * 
 	 */
 	public void scheduleJobs() {
 		// Schedule a task for each container
 		for (Job job : this.getJobs()) {
-			if (job.isValid()) {
+			if (job.isValid() && job.getId() == null) {
 				LOG.info("- Job '" + job + "' for container  '" + this + "' will be scheduled with '"
 						+ job.getSchedule() + "'");
 				String scheduleID = model.schedule(job.getSchedule(), job);
@@ -142,12 +187,71 @@ public class Container {
 		}
 	}
 
+	/**
+	 * Removes all scheduled jobs from the scheduler
+	 * 
+	 */
+	public void descheduleJobs() {
+		for (Job job : this.getJobs()) {
+			if (job.getId() != null) {
+				LOG.info("The job '" + job + "' for container '" + this + "' has been descheduled");
+				model.deschedule(job.getId());
+				job.setId(null);
+			}
+		}
+	}
+
 	public Collection<Job> getJobs() {
 		return jobs;
 	}
 
 	public void addJob(Job job) {
 		this.jobs.add(job);
+		this.jobIndex.putIfAbsent(getJobKey(job.getName(), job.getSchedule()), job);
+	}
+
+	/**
+	 * Removes all planned jobs which have not been scheduled yet
+	 */
+	void clearJobs() {
+		this.jobs.clear();
+		this.jobIndex.clear();
+	}
+
+	/**
+	 * Takes over the scheduled jobs of the previous container which are identical
+	 * to the planned jobs, so that they keep their scheduler id. The jobs are
+	 * matched by name and schedule and compared by their commands. The jobs which
+	 * have been taken over are removed from the previous container, so that it
+	 * only keeps the jobs which need to be descheduled.
+	 * 
+	 * @param previous
+	 * @return number of reused jobs
+	 */
+	int reuseJobs(Container previous) {
+		int result = 0;
+		List<Job> newJobs = new ArrayList<Job>();
+		for (Job job : this.jobs) {
+			String key = getJobKey(job.getName(), job.getSchedule());
+			Job old = previous.jobIndex.get(key);
+			if (old != null && old.getId() != null && old.isSameAs(job, previous)) {
+				old.moveTo(previous, this);
+				previous.jobs.remove(old);
+				previous.jobIndex.remove(key);
+				this.jobIndex.put(key, old);
+				newJobs.add(old);
+				result++;
+			} else {
+				newJobs.add(job);
+			}
+		}
+		this.jobs = new CopyOnWriteArrayList<Job>(newJobs);
+		LOG.info("Reused " + result + " jobs of the previous container for '" + this + "'");
+		return result;
+	}
+
+	private static String getJobKey(String jobName, String schedule) {
+		return jobName + "\t" + schedule;
 	}
 
 	public String getImage() {
@@ -183,10 +287,9 @@ public class Container {
 	}
 
 	public Job findJob(String jobName, String schedule) {
-		for (Job job : this.getJobs()) {
-			if (job.getName().equals(jobName) && job.getSchedule().equals(schedule)) {
-				return job;
-			}
+		Job job = this.jobIndex.get(getJobKey(jobName, schedule));
+		if (job != null) {
+			return job;
 		}
 		Job newJob = new Job(jobName, schedule, this);
 		return newJob;
@@ -241,12 +344,17 @@ public class Container {
 			for (Job job : this.getJobs()) {
 				if (job.isValid()) {
 					String schedule = job.getSchedule();
+					List<String> commands = new ArrayList();
+					for (JobCommandGroup grp : job.getCommandGroups()) {
+						commands.addAll(grp.getCommands());
+					}
+					if (isSubMinute(schedule)) {
+						// one event per day instead of thousands of single executions
+						result.addAll(getAggregatedEvents(job, commands, from, to));
+						continue;
+					}
 					for (Date date : this.model.getScheduler().getDates(schedule, from, to)) {
 						ScheduleEvent event = new ScheduleEvent(this.getName(), date, null, true, false);
-						List<String> commands = new ArrayList();
-						for (JobCommandGroup grp : job.getCommandGroups()) {
-							commands.addAll(grp.getCommands());
-						}
 						event.setCommands(commands);
 						event.setSchedule(job.getSchedule());
 						result.add(event);
@@ -259,6 +367,51 @@ public class Container {
 		return result;
 	}
 
+	private static boolean isSubMinute(String schedule) {
+		try {
+			return CronExpression.compile(schedule).isSubMinute();
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Summarizes the executions of a job which runs several times per minute
+	 * into one event per day
+	 * 
+	 * @param job
+	 * @param commands
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private List<ScheduleEvent> getAggregatedEvents(Job job, List<String> commands, Date from, Date to) {
+		List<ScheduleEvent> result = new ArrayList();
+		CronExpression expression = CronExpression.compile(job.getSchedule());
+		Calendar day = Calendar.getInstance();
+		day.setTime(from);
+		long start = from.getTime();
+		while (start < to.getTime()) {
+			day.add(Calendar.DAY_OF_MONTH, 1);
+			day.set(Calendar.HOUR_OF_DAY, 0);
+			day.set(Calendar.MINUTE, 0);
+			day.set(Calendar.SECOND, 0);
+			day.set(Calendar.MILLISECOND, 0);
+			long end = Math.min(day.getTimeInMillis(), to.getTime());
+			long[] summary = expression.summarize(start, end);
+			if (summary[0] > 0) {
+				ScheduleEvent event = new ScheduleEvent(this.getName(), new Date(summary[1]), new Date(summary[2]), true,
+						false);
+				event.setTitle(this.getName() + " (" + summary[0] + "x)");
+				event.setCommands(commands);
+				event.setSchedule(job.getSchedule());
+				result.add(event);
+			}
+			start = end;
+		}
+		return result;
+	}
+
 	/**
 	 * Determines the log entries for this container
 	 * 
@@ -0,0 +1,114 @@
+package ch.pschatzmann.docker.jobs.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Support for hashed schedules like in Jenkins: H stands for a value which is
+ * derived from a hash of the container name. So the jobs of different
+ * containers with the same schedule are spread evenly instead of all starting
+ * at the same time - but each container always gets the same time.
+ *
+ * Supported elements: H, H/n, H(a-b) and H(a-b)/n. E.g. 'H 2 * * *' is
+ * executed once between 2:00 and 2:59 and 'H/15 * * * *' every 15 minutes.
+ * For the day of the month H uses the range 1-28 so that it is valid in all
+ * months. Schedules with a leading seconds field are supported as well.
+ *
+ * @author pschatzmann
+ *
+ */
+public class HashedSchedule {
+	private static final Logger LOG = Logger.getLogger(HashedSchedule.class);
+	private static final int[] MIN = { 0, 0, 1, 1, 0 };
+	private static final int[] MAX = { 59, 23, 28, 12, 6 };
+	private static final Pattern ELEMENT = Pattern.compile("h(?:\\((\\d+)-(\\d+)\\))?(?:/(\\d+))?");
+
+	/**
+	 * Replaces the H elements of the schedule with the values for the
+	 * indicated container name
+	 *
+	 * @param schedule
+	 * @param name
+	 * @return the schedule which can be processed by cron4j
+	 */
+	public static String resolve(String schedule, String name) {
+		if (schedule == null || schedule.toLowerCase().indexOf('h') < 0) {
+			return schedule;
+		}
+		try {
+			StringBuilder result = new StringBuilder();
+			for (String pattern : schedule.split("\\|")) {
+				String fields[] = pattern.trim().split("\\s+");
+				if (fields.length != 5 && fields.length != 6) {
+					return schedule;
+				}
+				// the seconds field uses the same range as the minutes
+				int offset = fields.length == 6 ? 1 : 0;
+				if (result.length() > 0) {
+					result.append("|");
+				}
+				for (int field = 0; field < fields.length; field++) {
+					if (field > 0) {
+						result.append(" ");
+					}
+					String elements[] = fields[field].split(",");
+					for (int j = 0; j < elements.length; j++) {
+						if (j > 0) {
+							result.append(",");
+						}
+						result.append(resolveElement(elements[j], Math.max(field - offset, 0), field, name));
+					}
+				}
+			}
+			return result.toString();
+		} catch (IllegalArgumentException ex) {
+			LOG.error("Could not resolve the schedule '" + schedule + "': " + ex.getMessage());
+			return schedule;
+		}
+	}
+
+	private static String resolveElement(String element, int field, int position, String name) {
+		Matcher m = ELEMENT.matcher(element.toLowerCase());
+		if (!m.matches()) {
+			return element;
+		}
+		int min = MIN[field];
+		int max = MAX[field];
+		if (m.group(1) != null) {
+			min = Integer.parseInt(m.group(1));
+			max = Integer.parseInt(m.group(2));
+			if (min > max || min < MIN[field] || max > MAX[field]) {
+				throw new IllegalArgumentException("invalid range in '" + element + "'");
+			}
+		}
+		int hash = hash(name, position);
+		if (m.group(3) == null) {
+			return String.valueOf(min + hash % (max - min + 1));
+		}
+		int step = Integer.parseInt(m.group(3));
+		if (step <= 0) {
+			throw new IllegalArgumentException("invalid step in '" + element + "'");
+		}
+		int start = min + hash % Math.min(step, max - min + 1);
+		return start + "-" + max + "/" + step;
+	}
+
+	/**
+	 * Stable hash of the name. Each field uses a different seed so that e.g.
+	 * the minute does not depend on the hour.
+	 *
+	 * @param name
+	 * @param field
+	 * @return positive value
+	 */
+	private static int hash(String name, int field) {
+		int h = (String.valueOf(name) + "#" + field).hashCode();
+		h ^= h >>> 16;
+		h *= 0x45d9f3b;
+		h ^= h >>> 16;
+		return h & Integer.MAX_VALUE;
+	}
+
+}
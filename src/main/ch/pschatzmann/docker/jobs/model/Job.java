@@ -2,9 +2,13 @@ package ch.pschatzmann.docker.jobs.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+import ch.pschatzmann.docker.jobs.executors.ExecutorFactory;
+import ch.pschatzmann.docker.jobs.model.JobPlanner.Overlap;
 import ch.pschatzmann.docker.jobs.model.JobPlanner.Scenario;
 
 /**
@@ -13,6 +17,12 @@ import ch.pschatzmann.docker.jobs.model.JobPlanner.Scenario;
  * 
  * We record the job id so that we can cancel the job again.
  * 
+ * The overlap policy defines what happens if the job is triggered while it is
+ * still running: with skip the new execution is ignored, with queue it is
+ * executed once after the running one has finished and with concurrent (the
+ * default) both are running at the same time. The state is tracked with atomic
+ * flags so that the scheduler is never blocked.
+ * 
  * @author pschatzmann
  *
  */
@@ -21,24 +31,105 @@ public class Job implements Runnable {
 	private String id;
 	private String name;
 	private String schedule;
+	private Container owner;
 	private List<JobCommandGroup> commandGroups = new ArrayList<JobCommandGroup>();
 	private boolean isValid = false;
 	private int count = 0;
+	private Overlap overlap = Overlap.concurrent;
+	private AtomicBoolean running = new AtomicBoolean(false);
+	private AtomicBoolean pending = new AtomicBoolean(false);
+	private AtomicLong skippedCount = new AtomicLong();
+	private AtomicLong queuedCount = new AtomicLong();
 	
 	public Job(String name, String schedule, Container owner) {
 		this.name = name;
 		this.schedule = schedule;
+		this.owner = owner;
 		owner.addJob(this);
 	}
 
 	public void run() {
+		if (owner.isDeleted()) {
+			// the container has been stopped but its jobs are kept for a restart
+			LOG.debug("Job " + this + " is not executed because the container is not running");
+			return;
+		}
+		switch (overlap) {
+		case skip:
+			if (running.compareAndSet(false, true)) {
+				try {
+					executeAndRecord();
+				} finally {
+					running.set(false);
+				}
+			} else {
+				skippedCount.incrementAndGet();
+				LOG.warn("Job " + this + " is still running: the execution is skipped");
+			}
+			break;
+		case queue:
+			if (running.get()) {
+				queuedCount.incrementAndGet();
+				LOG.info("Job " + this + " is still running: the execution is queued");
+			}
+			pending.set(true);
+			drain();
+			break;
+		default:
+			executeAndRecord();
+		}
+	}
+
+	/**
+	 * Executes the pending requests as long as nobody else is doing it. The
+	 * pending flag is checked again after releasing the running flag so that no
+	 * request is lost.
+	 */
+	private void drain() {
+		while (pending.get() && running.compareAndSet(false, true)) {
+			try {
+				while (pending.getAndSet(false)) {
+					executeAndRecord();
+				}
+			} finally {
+				running.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Executes the job and records the successful execution. A failed execution
+	 * is not recorded, so that it is executed again by the next catch up.
+	 */
+	private void executeAndRecord() {
+		long start = System.currentTimeMillis();
+		try {
+			execute();
+		} catch (RuntimeException ex) {
+			LOG.error("Job " + this + " has failed: the execution is not recorded", ex);
+			return;
+		}
+		if (this.owner != null) {
+			this.owner.getModel().recordExecution(this, start);
+		}
+	}
+
+	/**
+	 * Executes all command groups
+	 * @throws IllegalStateException if any command has failed
+	 */
+	protected void execute() {
+		boolean ok = true;
 		for (JobCommandGroup cg : this.commandGroups) {
 			LOG.info("Job is running on container " + cg.getDestination().getExecutionContainer() + " for data of "
 					+ cg.getDestination().getDataSourceContainer());
 			for (String command : cg.getCommands()) {
-				cg.execute(command.split(" "), cg);
+				ok = cg.execute(command.split(" "), cg) && ok;
 			}
 		}
+		if (!ok) {
+			throw new IllegalStateException("Some commands of the job " + this + " have failed");
+		}
 	}
 
 	public String getId() {
@@ -58,6 +149,48 @@ public class Job implements Runnable {
 		return schedule;
 	}
 
+	public Overlap getOverlap() {
+		return overlap;
+	}
+
+	public void setOverlap(Overlap overlap) {
+		this.overlap = overlap;
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Number of executions which were skipped because the job was still running
+	 * @return
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	/**
+	 * Number of executions which had to wait because the job was still running
+	 * @return
+	 */
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	public Container getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Determines the type of the executor of the first command group
+	 * 
+	 * @return null if there are no commands
+	 */
+	public String getExecutorType() {
+		return this.commandGroups.isEmpty() ? null
+				: ExecutorFactory.getExecutorType(this.commandGroups.get(0).getScenario());
+	}
+
 	public List<JobCommandGroup> getCommandGroups() {
 		return this.commandGroups;
 	}
@@ -74,6 +207,41 @@ public class Job implements Runnable {
 		return new JobCommandGroup(new JobDestination(executionContainer, dataSourceContainer), job, job.getName()+"-"+count+"-"+dataSourceContainer.getName(), sceanrio);
 	}
 
+	/**
+	 * Determines if the other job executes the same commands. The previous
+	 * container of this job is treated like the owner of the other job.
+	 * 
+	 * @param other
+	 * @param previous
+	 * @return
+	 */
+	boolean isSameAs(Job other, Container previous) {
+		if (this.isValid != other.isValid || this.overlap != other.overlap
+				|| this.commandGroups.size() != other.commandGroups.size()) {
+			return false;
+		}
+		for (int j = 0; j < this.commandGroups.size(); j++) {
+			if (!this.commandGroups.get(j).isSameAs(other.commandGroups.get(j), previous, other.owner)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Assigns the job and its command groups to the container which replaces the
+	 * previous owner
+	 * 
+	 * @param previous
+	 * @param replacement
+	 */
+	void moveTo(Container previous, Container replacement) {
+		this.owner = replacement;
+		for (JobCommandGroup cg : this.commandGroups) {
+			cg.replace(previous, replacement);
+		}
+	}
+
 	public boolean isValid() {
 		return isValid;
 	}
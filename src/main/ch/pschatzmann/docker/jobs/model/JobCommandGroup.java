@@ -2,6 +2,7 @@ package ch.pschatzmann.docker.jobs.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import ch.pschatzmann.docker.jobs.executors.ExecutorFactory;
 import ch.pschatzmann.docker.jobs.executors.IExecutor;
@@ -74,15 +75,56 @@ public class JobCommandGroup {
 		this.isValid = isValid;
 	}
 
-	public void execute(String[] split, JobCommandGroup cg) {			
+	/**
+	 * Executes the commands with the executor of the scenario
+	 * @param split
+	 * @param cg
+	 * @return true if the commands have been executed without error
+	 */
+	public boolean execute(String[] split, JobCommandGroup cg) {			
 		IExecutor exec = ExecutorFactory.getExecutor(cg.getDestination().isOneSource(), cg.getScenario());
-		exec.execute(commands, cg.getDestination(), cg.getName());
+		return exec.execute(commands, cg.getDestination(), cg.getName());
 	}
 
 	private String getName() {
 		return this.name;
 	}
 
+	/**
+	 * Determines if the other command group executes the same commands at the
+	 * same destination
+	 * 
+	 * @param other
+	 * @param previous
+	 *            container which is replaced by the replacement
+	 * @param replacement
+	 * @return
+	 */
+	boolean isSameAs(JobCommandGroup other, Container previous, Container replacement) {
+		return this.scenario == other.scenario && this.name.equals(other.name)
+				&& Objects.equals(this.scriptEngine, other.scriptEngine)
+				&& this.commands.equals(other.commands)
+				&& isSame(destination.getExecutionContainer(), other.destination.getExecutionContainer(), previous, replacement)
+				&& isSame(destination.getDataSourceContainer(), other.destination.getDataSourceContainer(), previous, replacement);
+	}
+
+	private static boolean isSame(Container c, Container other, Container previous, Container replacement) {
+		return c == previous ? other == replacement : c == other;
+	}
+
+	/**
+	 * Replaces the previous container in the destination
+	 * 
+	 * @param previous
+	 * @param replacement
+	 */
+	void replace(Container previous, Container replacement) {
+		Container execution = destination.getExecutionContainer();
+		Container dataSource = destination.getDataSourceContainer();
+		this.destination = new JobDestination(execution == previous ? replacement : execution,
+				dataSource == previous ? replacement : dataSource);
+	}
+
 	public Job getJob() {
 		return this.job;
 	}
@@ -6,7 +6,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 
@@ -30,19 +29,33 @@ public class JobPlanner {
 	private static final Logger LOG = Logger.getLogger(JobPlanner.class);
 	private Collection<CommandInfo> steps = new ArrayList<CommandInfo>();
 	private Container currentContainer;
+	// property names of the labels: later ones override earlier ones
+	private static final String[] SCRIPT_ENGINE = { "scriptengine" };
+	private static final String[] SCRIPTING_AS_TEMPLATES = { "scriptingastemplates" };
+	private static final String[] CONDITION = { "condition" };
+	private static final String[] SCENARIO = { "level", "scenario" };
+	private static final String[] SCHEDULE = { "schedule" };
+	private static final String[] COMMAND = { "command" };
+	private static final String[] OVERLAP = { "overlap" };
 
 	public enum Action {
-		condition, schedule, command, executor, level, scriptengine, scriptingastemplates
+		condition, schedule, command, executor, level, scriptengine, scriptingastemplates, overlap
 	};
 
 	public enum Scenario {
 		 Maven, Local, Central
 	};
 
+	/**
+	 * Defines what happens when a job is triggered while it is still running
+	 */
+	public enum Overlap {
+		 skip, queue, concurrent
+	};
+
 	public JobPlanner(Container currentContainer) {
 		this.currentContainer = currentContainer;
-		Map<String, String> jobAttributes = getJobAttributes(currentContainer.getAttributes());
-		setupCommandSteps(jobAttributes, currentContainer.isBatchContainer());
+		setupCommandSteps(new LabelTree(currentContainer.getAttributes()));
 	}
 
 	public void createJobs() {
@@ -71,10 +84,11 @@ public class JobPlanner {
 	private void createLocalJobs() {
 		if (this.currentContainer.isLocalContainer()) {
 			for (CommandInfo step : this.steps) {
-				Job job = this.currentContainer.findJob(step.getJobName(), step.getSchedule());
+				Container dataSourceContainer = this.currentContainer;
+				Job job = this.currentContainer.findJob(step.getJobName(), getSchedule(step, dataSourceContainer));
+				job.setOverlap(step.getOverlap());
 				Scenario scenario = step.getScenario();
 				Container executionContainer = step.isCentralExecutor() ? this.currentContainer.getModel().getDefaultBatchContainer() : this.currentContainer;
-				Container dataSourceContainer = this.currentContainer;
 				JobCommandGroup jcg = job.findCommandGroup(executionContainer, dataSourceContainer, step.getScriptEngine(), step.scriptingAsTemplates, job, scenario);
 				addCommands(step, dataSourceContainer, jcg);
 			}
@@ -95,12 +109,13 @@ public class JobPlanner {
 	}
 
 	private void createCentralStepsForLevel(Container central, List<Scenario> levels) {
-		Collection<CommandInfo> centralSteps = new JobPlanner(central).getSteps();
+		Collection<CommandInfo> centralSteps = this.currentContainer.getModel().getCentralSteps(central);
 		for (CommandInfo step : centralSteps) {
 			if (levels.contains(step.getScenario())) {
-				Job job = this.currentContainer.findJob(step.getJobName(), step.getSchedule());
-				Container executionContainer = step.isCentralExecutor() ? central : this.currentContainer;
 				Container dataSourceContainer = this.currentContainer;
+				Job job = this.currentContainer.findJob(step.getJobName(), getSchedule(step, dataSourceContainer));
+				job.setOverlap(step.getOverlap());
+				Container executionContainer = step.isCentralExecutor() ? central : this.currentContainer;
 				JobCommandGroup jcg = job.findCommandGroup(executionContainer, dataSourceContainer,
 						step.getScriptEngine(), step.scriptingAsTemplates, job, step.getScenario());
 				addCommands(step, dataSourceContainer, jcg);
@@ -109,19 +124,34 @@ public class JobPlanner {
 
 	}
 
+	/**
+	 * Determines the schedule where the hashed values (H) are resolved for the
+	 * container which provides the data
+	 * 
+	 * @param step
+	 * @param dataSourceContainer
+	 * @return
+	 */
+	private String getSchedule(CommandInfo step, Container dataSourceContainer) {
+		return HashedSchedule.resolve(step.getSchedule(), dataSourceContainer.getName());
+	}
+
 	private void addCommands(CommandInfo step, Container dataSourceContainer, JobCommandGroup jcg) {
 		Object vl[] = {null};
 //		if (Arrays.asList(Scenario.volume, Scenario.containerVolumesWithTempSystem).contains(step.getScenario())) {
 //			vl = dataSourceContainer.getMounts().toArray();
 //		}
 		for (Object v : vl) {
-			Map<String,String> values = new HashMap<String, String>(dataSourceContainer.getAttributes());
+			// the attributes are immutable so we do not need to copy them
+			Map<String,String> values = dataSourceContainer.getAttributes();
 			if (v != null) {
 				Volume volume = (Volume)v;
-				values.put("volume.local", volume.getLocalPath());
-				values.put("volume", volume.getDestination());
-				values.put("volume.name", volume.getName());
-				values.put("volume.destination", volume.getDestination());
+				Map<String,String> volumeValues = new HashMap<String, String>();
+				volumeValues.put("volume.local", volume.getLocalPath());
+				volumeValues.put("volume", volume.getDestination());
+				volumeValues.put("volume.name", volume.getName());
+				volumeValues.put("volume.destination", volume.getDestination());
+				values = Attributes.overlay(values, volumeValues);
 			}
 			EvaluationEngines e = new EvaluationEngines(jcg, values);
 			if (e.isValid(step.getCondition())) {
@@ -138,52 +168,28 @@ public class JobPlanner {
 		}
 	}
 
-	private Collection<CommandInfo> getSteps() {
+	Collection<CommandInfo> getSteps() {
 		return this.steps;
 	}
 
-	private Map<String, String> getJobAttributes(Map<String, String> attributes) {
-		Map<String, String> result = new HashMap<String, String>();
-		for (Entry<String, String> e : attributes.entrySet()) {
-			String key = e.getKey().toLowerCase();
-			if (key.startsWith("job.")) {
-				result.put(key.toLowerCase().trim(), e.getValue());
-			}
+	private void setupCommandSteps(LabelTree labels) {
+		for (String[] command : labels.getCommands()) {
+			addCommand(command[0], command[1], labels);
 		}
-		return result;
 	}
 
-	private void setupCommandSteps(Map<String, String> attributes, boolean isBatch) {
-		for (String key : attributes.keySet()) {
-			String keyArray[] = key.split("\\.");
-			if (keyArray.length == 3 && "command".equalsIgnoreCase(keyArray[2])) {
-				addCommand(keyArray[1], "", attributes, isBatch);
-			} else if (keyArray.length == 4 && "command".equalsIgnoreCase(keyArray[2])) {
-				addCommand(keyArray[1], keyArray[3], attributes, isBatch);
-			}
-		}
-	}
-
-	private void addCommand(String jobName, String stepName, Map<String, String> attr, boolean isBatch) {
+	private void addCommand(String jobName, String stepName, LabelTree labels) {
 		CommandInfo step = new CommandInfo();
 		step.jobName = jobName;
 		step.stepName = stepName;
-		step.scriptEngine = getValue(attr, Arrays.asList("job.scriptengine", "job.{jobname}.scriptengine"), jobName,
-				null, "javascript");
-		step.scriptingAsTemplates = "true".equals(getValue(attr,
-				Arrays.asList("job.scriptingAsTemplates", "job.{jobname}.scriptingAsTemplates"), jobName, null));
-		step.condition = getValue(attr,
-				Arrays.asList("job.condition", "job.{jobname}.condition", "job.{jobname}.condition.{stepname}"),
-				jobName, stepName);
-		step.scenario = getScenario(
-				getValue(attr, Arrays.asList("job.level","job.scenario", "job.{jobname}.level", "job.{jobname}.scenario", "job.{jobname}.level.{stepname}", "job.{jobname}.scenario.{stepname}"),
-						jobName, stepName, currentContainer.isBatchContainer() ? "Central" : "Local"));
-		step.schedule = getValue(attr,
-				Arrays.asList("job.schedule", "job.{jobname}.schedule", "job.{jobname}.schedule.{stepName}"), jobName,
-				stepName);
-		step.command = getValue(attr,
-				Arrays.asList("job.command", "job.{jobname}.command", "job.{jobname}.command.{stepName}"), jobName,
-				stepName);
+		step.scriptEngine = getValue(labels.get(SCRIPT_ENGINE, jobName, null), "javascript");
+		step.scriptingAsTemplates = "true".equals(labels.get(SCRIPTING_AS_TEMPLATES, jobName, null));
+		step.condition = labels.get(CONDITION, jobName, stepName);
+		step.scenario = getScenario(getValue(labels.get(SCENARIO, jobName, stepName),
+				currentContainer.isBatchContainer() ? "Central" : "Local"));
+		step.schedule = labels.get(SCHEDULE, jobName, stepName);
+		step.command = labels.get(COMMAND, jobName, stepName);
+		step.overlap = getOverlap(getValue(labels.get(OVERLAP, jobName, null), Overlap.concurrent.name()));
 		
 		steps.add(step);
 
@@ -193,29 +199,17 @@ public class JobPlanner {
 		return value == null ? null : Scenario.valueOf(value);
 	}
 
-	private String getValue(Map<String, String> map, List<String> l, String jobName, String stepName) {
-		return getValue(map, l, jobName, stepName, null);
-	}
-
-	private String getValue(Map<String, String> map, List<String> l, String jobName, String stepName,
-			String defaultValue) {
-		String result = null;
-		for (String key : l) {
-			key = key.toLowerCase().trim();
-			key = key.replace("{jobname}", jobName);
-			if (stepName != null) {
-				key = key.replace("{stepname}", stepName);
-			}
-			String tmp = map.get(key);
-			if (tmp != null) {
-				result = tmp;
-			}
-		}
-		if (result == null && !Utils.isEmpty(defaultValue)) {
-			result = defaultValue;
+	private Overlap getOverlap(String value) {
+		try {
+			return Overlap.valueOf(value.trim().toLowerCase());
+		} catch (IllegalArgumentException ex) {
+			LOG.error("Invalid overlap '" + value + "': we use " + Overlap.concurrent);
+			return Overlap.concurrent;
 		}
+	}
 
-		return result;
+	private String getValue(String value, String defaultValue) {
+		return value == null && !Utils.isEmpty(defaultValue) ? defaultValue : value;
 	}
 
 	public static class CommandInfo {
@@ -227,10 +221,19 @@ public class JobPlanner {
 		private Scenario scenario = null;
 		private String scriptEngine = "";
 		private Boolean scriptingAsTemplates;
+		private Overlap overlap = Overlap.concurrent;
 
 		public CommandInfo() {
 		}
 
+		public Overlap getOverlap() {
+			return overlap;
+		}
+
+		public void setOverlap(Overlap overlap) {
+			this.overlap = overlap;
+		}
+
 		public String getSchedule() {
 			return schedule;
 		}
@@ -0,0 +1,140 @@
+package ch.pschatzmann.docker.jobs.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The job labels parsed into a tree: the global properties (job.property), the
+ * properties of a job (job.jobname.property) and the properties of a step
+ * (job.jobname.property.stepname). So we can resolve a property with a few map
+ * lookups instead of building the label names.
+ *
+ * @author pschatzmann
+ *
+ */
+public class LabelTree {
+	private Map<String, String> global = new HashMap<String, String>();
+	private Map<String, JobLabels> jobs = new HashMap<String, JobLabels>();
+	private List<String[]> commands = new ArrayList<String[]>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param attributes
+	 *            all attributes of the container: only the job labels are used
+	 */
+	public LabelTree(Map<String, String> attributes) {
+		Map<String, String> labels = new HashMap<String, String>();
+		for (Entry<String, String> e : attributes.entrySet()) {
+			String key = e.getKey().toLowerCase();
+			if (key.startsWith("job.")) {
+				labels.put(key.trim(), e.getValue());
+			}
+		}
+		for (Entry<String, String> e : labels.entrySet()) {
+			add(e.getKey(), e.getValue());
+		}
+	}
+
+	private void add(String key, String value) {
+		// the steps are defined by the commands
+		String[] parts = key.split("\\.");
+		if (parts.length == 3 && "command".equals(parts[2])) {
+			commands.add(new String[] { parts[1], "" });
+		} else if (parts.length == 4 && "command".equals(parts[2])) {
+			commands.add(new String[] { parts[1], parts[3] });
+		}
+
+		String keyArray[] = key.split("\\.", -1);
+		switch (keyArray.length) {
+		case 2:
+			global.put(keyArray[1], value);
+			break;
+		case 3:
+			getJob(keyArray[1]).properties.put(keyArray[2], value);
+			break;
+		case 4:
+			getJob(keyArray[1]).getStep(keyArray[3]).put(keyArray[2], value);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private JobLabels getJob(String jobName) {
+		JobLabels result = jobs.get(jobName);
+		if (result == null) {
+			result = new JobLabels();
+			jobs.put(jobName, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Provides the job name and step name of all commands
+	 *
+	 * @return
+	 */
+	public List<String[]> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Determines the value of the property. The step overrides the job which
+	 * overrides the global value. If several properties are indicated the later
+	 * one overrides the earlier one on the same level.
+	 *
+	 * @param properties
+	 *            lower case property names
+	 * @param jobName
+	 * @param stepName
+	 *            null if the value can not be defined per step
+	 * @return null if the value is not defined
+	 */
+	public String get(String[] properties, String jobName, String stepName) {
+		String result = get(global, properties, null);
+		JobLabels job = jobs.get(jobName);
+		if (job != null) {
+			result = get(job.properties, properties, result);
+			if (stepName != null) {
+				Map<String, String> step = job.steps.get(stepName);
+				if (step != null) {
+					result = get(step, properties, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String get(Map<String, String> values, String[] properties, String defaultValue) {
+		String result = defaultValue;
+		for (String property : properties) {
+			String value = values.get(property);
+			if (value != null) {
+				result = value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Labels of a job
+	 */
+	private static class JobLabels {
+		private Map<String, String> properties = new HashMap<String, String>();
+		private Map<String, Map<String, String>> steps = new HashMap<String, Map<String, String>>();
+
+		Map<String, String> getStep(String stepName) {
+			Map<String, String> result = steps.get(stepName);
+			if (result == null) {
+				result = new HashMap<String, String>();
+				steps.put(stepName, result);
+			}
+			return result;
+		}
+	}
+
+}
@@ -1,41 +1,91 @@
 package ch.pschatzmann.docker.jobs.model;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 
+import ch.pschatzmann.docker.jobs.api.CronExpression;
+import ch.pschatzmann.docker.jobs.api.ExecutionPool;
+import ch.pschatzmann.docker.jobs.api.FireStore;
 import ch.pschatzmann.docker.jobs.api.IDocker;
 import ch.pschatzmann.docker.jobs.api.IScheduler;
+import ch.pschatzmann.docker.jobs.model.JobPlanner.CommandInfo;
+import ch.pschatzmann.docker.jobs.model.scripting.ScriptEnginePool;
 
 /**
  * Access to the basic Model of our application which consists of the
  * containers, the API to docker commands and the scheduler.
  * 
+ * The containers are kept in an immutable snapshot which is replaced on each
+ * change. The snapshot also contains an index by the container name. So the HTTP, event and scheduler threads can read the model without
+ * any locking and always see a consistent state. The changes are serialized
+ * with a fair lock so that they are applied in the order of their arrival.
+ * 
+ * When a container stops it is only retired: its jobs stay scheduled but are
+ * not executed. If it is started again with the same job labels the existing
+ * jobs are reused, so that we do not need to plan and schedule them again. If
+ * it is recreated with a new id (or its labels have changed) the new jobs are
+ * compared with the jobs of the retired container and only the changed ones
+ * are swapped. Retired containers are removed after retireTimeoutSec.
+ * 
  * @author pschatzmann
  *
  */
 
 public class Model {
 	private static final Logger LOG = Logger.getLogger(Model.class);
-	private Map<String, Container> containers = new HashMap<String, Container>();
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
+	private final ReentrantLock mutationLock = new ReentrantLock(true);
 	private IDocker docker;
 	private IScheduler scheduler;
-	private Container batchContainer;
+	private volatile Container batchContainer;
+	private Map<String, Retired> retired = new HashMap<String, Retired>();
+	private volatile CentralSteps centralSteps;
+	private int planningThreads = Integer.parseInt(Utils.getProperty("planningThreads",
+			String.valueOf(Runtime.getRuntime().availableProcessors())));
+	private ForkJoinPool planningPool;
+	private ScheduledExecutorService retireTimer;
+	private long retireTimeoutMs = Long.parseLong(Utils.getProperty("retireTimeoutSec", "3600")) * 1000;
+	private FireStore fireStore;
 
 	/**
 	 * Model w/o API integration. 
 	 */
 	public Model(IScheduler scheduler) {
 		this.scheduler = scheduler;
+		String stateDir = Utils.getProperty("stateDir", "");
+		if (!Utils.isEmpty(stateDir)) {
+			try {
+				this.fireStore = new FireStore(new File(stateDir, "executions.log"));
+			} catch (IOException ex) {
+				LOG.error("Could not open the execution store in " + stateDir, ex);
+			}
+		}
 	}
 
 
@@ -60,9 +110,86 @@ public class Model {
 	 */
 	public void start() throws Exception {
 		subscribeEvents();
+		catchUp();
 		this.getScheduler().start();
 	}
 
+	/**
+	 * Executes the jobs which have missed their scheduled time while we were
+	 * not running. The catchUpPolicy defines what we do: none (default), once
+	 * (execute each job only once) or all (execute each missed occurrence up
+	 * to catchUpMax times). The jobs are executed by the scheduler, so the
+	 * limits of its execution pool apply.
+	 * 
+	 * @return number of scheduled executions
+	 */
+	public int catchUp() {
+		String policy = Utils.getProperty("catchUpPolicy", "none");
+		if (fireStore == null || "none".equalsIgnoreCase(policy)) {
+			return 0;
+		}
+		int max = Integer.parseInt(Utils.getProperty("catchUpMax", "10"));
+		int result = 0;
+		long now = System.currentTimeMillis();
+		for (Container c : this.getContainers()) {
+			for (Job job : c.getJobs()) {
+				Long last = job.isValid() ? getLastFire(c, job) : null;
+				if (last != null) {
+					int count = getMissedCount(job, last, now, "all".equalsIgnoreCase(policy) ? max : 1);
+					if (count > 0) {
+						LOG.info("The job '" + job + "' for container '" + c + "' has missed executions since "
+								+ new Date(last) + ": it is executed " + count + " times");
+						try {
+							for (int j = 0; j < count; j++) {
+								this.scheduler.execute(job);
+								result++;
+							}
+						} catch (RejectedExecutionException ex) {
+							LOG.warn("The catch up of the job '" + job + "' has been rejected: " + ex.getMessage());
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the scheduled times after the last execution and before now. We
+	 * stop at the max, so that we do not need to scan a long down time.
+	 * @param job
+	 * @param last
+	 * @param now
+	 * @param max
+	 * @return
+	 */
+	private int getMissedCount(Job job, long last, long now, int max) {
+		CronExpression expression;
+		try {
+			expression = CronExpression.compile(job.getSchedule());
+		} catch (IllegalArgumentException ex) {
+			LOG.warn("The missed executions of the job '" + job + "' can not be determined: " + ex.getMessage());
+			return 0;
+		}
+		int result = 0;
+		for (long time = expression.next(last); time >= 0 && time < now && result < max; time = expression.next(time)) {
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * Provides the last execution time of the job. The records which were written
+	 * without the schedule are used as fallback.
+	 * @param c
+	 * @param job
+	 * @return
+	 */
+	private Long getLastFire(Container c, Job job) {
+		Long result = fireStore.getLastFire(FireStore.getKey(c.getName(), job.getName(), job.getSchedule()));
+		return result != null ? result : fireStore.getLastFire(FireStore.getKey(c.getName(), job.getName()));
+	}
+
 	/**
 	 * Reads the Images from docker to determine what needs to be backed up
 	 * 
@@ -81,9 +208,9 @@ public class Model {
 	 */
 	public Collection<Container> getContainers() {
 		Collection<Container> result = new ArrayList<Container>();
-		for (Entry<String, Container> e : containers.entrySet()) {
-			if (!e.getValue().isDeleted()) {
-				result.add(e.getValue());
+		for (Container c : snapshot.byId.values()) {
+			if (!c.isDeleted()) {
+				result.add(c);
 			}
 		}
 		return result;
@@ -94,7 +221,7 @@ public class Model {
 	 * @return
 	 */
 	public Container getContainer(String name) {
-		return containers.get(name);
+		return snapshot.byId.get(name);
 	}
 	
 	/**
@@ -102,12 +229,8 @@ public class Model {
 	 * @return
 	 */
 	public Container getContainerByName(String name) {
-		for (Entry<String, Container> e : containers.entrySet()) {
-			if (!e.getValue().isDeleted() && name.equals(e.getValue().getName())) {
-				return e.getValue();
-			}
-		}
-		return null;
+		Container c = snapshot.byName.get(name);
+		return c != null && !c.isDeleted() ? c : null;
 	}
 
 	/**
@@ -116,18 +239,116 @@ public class Model {
 	 * @return
 	 */
 	public Container deleteContainer(String id) {
-		Container c = containers.get(id);
-		if (c != null) {
-			c.setDeleted(true);
-			containers.remove(id);
-			LOG.info("The container was removed from the model "+c);
+		mutationLock.lock();
+		try {
+			Container c = snapshot.byId.get(id);
+			if (c != null) {
+				c.setDeleted(true);
+				Map<String, Container> newContainers = new HashMap<String, Container>(snapshot.byId);
+				newContainers.remove(id);
+				publish(newContainers);
+				LOG.info("The container was removed from the model "+c);
+			}
+			
+			if (c==this.batchContainer) {
+				batchContainer = null;
+				centralSteps = null;
+			}
+			
+			Retired r = retired.remove(id);
+			if (c == null && r != null) {
+				// the jobs of a retired container are still scheduled
+				r.container.descheduleJobs();
+			}
+			return c;
+		} finally {
+			mutationLock.unlock();
+		}
+	}
+
+	/**
+	 * The container has been stopped: we remove it from the model but keep its
+	 * jobs so that they can be reused when it is started again. The jobs are
+	 * not executed as long as the container is retired.
+	 * @param id
+	 * @return
+	 */
+	public Container retireContainer(String id) {
+		mutationLock.lock();
+		try {
+			purgeRetired();
+			Container c = snapshot.byId.get(id);
+			if (c == null || c.isTempContainer() || c.getPlanningKey() == null) {
+				c = deleteContainer(id);
+				if (c != null) {
+					c.descheduleJobs();
+				}
+				return c;
+			}
+			deleteContainer(id);
+			retired.put(id, new Retired(c, System.currentTimeMillis()));
+			startRetireTimer();
+			LOG.info("The container has been retired "+c);
+			return c;
+		} finally {
+			mutationLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the retired containers periodically, so that they do not depend on
+	 * the next stopped container. The check is done every minute or after
+	 * retireTimeoutSec if this is shorter.
+	 */
+	private void startRetireTimer() {
+		if (retireTimer == null) {
+			long periodMs = Math.max(1000, Math.min(60000, retireTimeoutMs));
+			retireTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "retired");
+				thread.setDaemon(true);
+				return thread;
+			});
+			retireTimer.scheduleWithFixedDelay(() -> {
+				mutationLock.lock();
+				try {
+					purgeRetired();
+				} catch (Exception ex) {
+					LOG.error("Could not remove the retired containers", ex);
+				} finally {
+					mutationLock.unlock();
+				}
+			}, periodMs, periodMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Deschedules the jobs of the containers which have been retired for more than
+	 * retireTimeoutSec
+	 */
+	private void purgeRetired() {
+		long limit = System.currentTimeMillis() - retireTimeoutMs;
+		Iterator<Retired> it = retired.values().iterator();
+		while (it.hasNext()) {
+			Retired r = it.next();
+			if (r.time <= limit) {
+				it.remove();
+				r.container.descheduleJobs();
+				LOG.info("The retired container has been removed "+r.container);
+			}
 		}
-		
-		if (c==this.batchContainer) {
-			batchContainer = null;
+	}
+
+	/**
+	 * Return the number of stopped containers which still keep their jobs
+	 * @return
+	 */
+	public int getRetiredCount() {
+		mutationLock.lock();
+		try {
+			return retired.size();
+		} finally {
+			mutationLock.unlock();
 		}
-		
-		return c;
 	}
 
 	/**
@@ -136,28 +357,272 @@ public class Model {
 	 * @return
 	 */
 	public Container addContainer(Container c) {
-		if (containers.get(c.getId()) == null) {
-			this.containers.put(c.getId(), c);
-			// additional attributes
-			if (!c.getMounts().isEmpty()) {
-			    final StringBuilder stringDestination = new StringBuilder();
-			    c.getMounts().forEach(l -> stringDestination.append(l.getDestination()+" "));
-			    final StringBuilder stringSource = new StringBuilder();
-			    c.getMounts().forEach(l -> stringSource.append(l.getSource()+" "));
-			    final StringBuilder localPath = new StringBuilder();
-			    c.getMounts().forEach(l -> stringSource.append(l.getLocalPath()+" "));
-				
-				c.getAttributes().put("volumes.localpath", localPath.toString().trim());
-				c.getAttributes().put("volumes.destination", stringDestination.toString().trim());
-				c.getAttributes().put("volumes.source", stringSource.toString().trim());
-				c.getAttributes().put("volumes", c.getAttributes().get("volumes.destination"));
+		Collection<Container> result = addContainers(Collections.singletonList(c));
+		return result.isEmpty() ? c : result.iterator().next();
+	}
+
+	/**
+	 * Replaces a container which is already in our model by its new inspection
+	 * result. If the name and the job labels are unchanged we keep the existing
+	 * container and its scheduled jobs. Otherwise the existing container is
+	 * retired and the new one is added, so that the unchanged jobs are reused
+	 * and the stale jobs are descheduled like for a recreated container.
+	 * @param c
+	 * @return the container which is in the model
+	 */
+	public Container replaceContainer(Container c) {
+		mutationLock.lock();
+		try {
+			Container old = snapshot.byId.get(c.getId());
+			if (old == null) {
+				return addContainer(c);
+			}
+			addAttributes(c);
+			c.setPlanningKey(getPlanningKey(c));
+			if (old.getPlanningKey() != null && isRestart(c, old)) {
+				if (this.batchContainer == c) {
+					this.batchContainer = old;
+				}
+				return old;
+			}
+			LOG.info("The labels of the container have changed: the jobs are planned again " + c);
+			boolean batch = this.batchContainer == old || this.batchContainer == c;
+			retireContainer(c.getId());
+			if (batch) {
+				setBatchContainer(c);
+			}
+			return addContainer(c);
+		} finally {
+			mutationLock.unlock();
+		}
+	}
+
+	/**
+	 * Adds several containers to our model. The jobs are planned in parallel
+	 * with planningThreads threads before we take the lock, so that the
+	 * processing of the other events is not blocked. Then all containers are
+	 * published at once and their jobs are scheduled.
+	 * @param containers
+	 * @return the added containers (or the restarted containers which were reused)
+	 */
+	public Collection<Container> addContainers(Collection<Container> containers) {
+		// plan the new containers which can not reuse the jobs of a retired container
+		List<Container> planned = new ArrayList<Container>();
+		Set<String> ids = new HashSet<String>();
+		mutationLock.lock();
+		try {
+			for (Container c : containers) {
+				if (snapshot.byId.containsKey(c.getId()) || !ids.add(c.getId())) {
+					continue;
+				}
+				addAttributes(c);
+				c.setPlanningKey(getPlanningKey(c));
+				Retired r = retired.get(c.getId());
+				if ((r == null || !isRestart(c, r.container)) && !c.isTempContainer()) {
+					planned.add(c);
+				}
 			}
-			if (!c.isTempContainer()) {			
-				c.createJobs();			
+		} finally {
+			mutationLock.unlock();
+		}
+		createJobs(planned);
+		Set<Container> plannedSet = new HashSet<Container>(planned);
+
+		mutationLock.lock();
+		try {
+			Map<String, Container> newContainers = new HashMap<String, Container>(snapshot.byId);
+			List<Container> result = new ArrayList<Container>();
+			List<Container> scheduled = new ArrayList<Container>();
+			List<Retired> replaced = new ArrayList<Retired>();
+			for (Container c : containers) {
+				if (newContainers.containsKey(c.getId()) || !ids.remove(c.getId())) {
+					// added in the meantime or duplicate
+					continue;
+				}
+				Map<String, String> planningKey = getPlanningKey(c);
+				boolean replan = !planningKey.equals(c.getPlanningKey());
+				c.setPlanningKey(planningKey);
+				Retired r = retired.remove(c.getId());
+				if (r != null && isRestart(c, r.container)) {
+					// restart with the same labels: reuse the planned and scheduled jobs
+					Container old = r.container;
+					old.setDeleted(false);
+					if (this.batchContainer == c) {
+						this.batchContainer = old;
+					}
+					newContainers.put(old.getId(), old);
+					result.add(old);
+					LOG.info("The container has been restarted with unchanged jobs "+old);
+					continue;
+				}
+				newContainers.put(c.getId(), c);
+				result.add(c);
+				if (r == null) {
+					r = removeRetired(c);
+				}
+				if (!c.isTempContainer()) {
+					if (replan || !plannedSet.contains(c)) {
+						// the batch container or the retired containers have changed
+						c.clearJobs();
+						createJobs(c);
+					}
+					if (r != null) {
+						// keep the unchanged jobs of the stopped container
+						c.reuseJobs(r.container);
+					}
+					scheduled.add(c);
+				}
+				if (r != null) {
+					replaced.add(r);
+				}
+			}
+
+			publish(newContainers);
+			for (Container c : scheduled) {
 				c.scheduleJobs();
 			}
-		}		
-		return c;
+			for (Retired r : replaced) {
+				// the new jobs are already scheduled, so shared triggers with the same
+				// schedule stay registered in the scheduler. The reused jobs have been
+				// moved to the new container.
+				r.container.descheduleJobs();
+			}
+			return result;
+		} finally {
+			mutationLock.unlock();
+		}
+	}
+
+	/**
+	 * Plans the jobs of the containers. The planning of a container only depends
+	 * on its attributes and on the batch container, so we can do it in parallel.
+	 * @param containers
+	 */
+	private void createJobs(List<Container> containers) {
+		if (planningThreads <= 1 || containers.size() <= 1) {
+			containers.forEach(c -> createJobs(c));
+			return;
+		}
+		Container batch = this.batchContainer;
+		if (batch != null) {
+			// parse the steps of the batch container only once
+			getCentralSteps(batch);
+		}
+		ForkJoinPool pool = getPlanningPool();
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (Container c : containers) {
+			tasks.add(pool.submit(() -> createJobs(c)));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		LOG.info("The jobs of " + containers.size() + " containers have been planned with " + planningThreads + " threads");
+	}
+
+	/**
+	 * Plans the jobs of a single container. If this fails the container does not
+	 * get any jobs, but the other containers are not affected.
+	 * @param c
+	 */
+	private void createJobs(Container c) {
+		try {
+			c.createJobs();
+		} catch (Exception ex) {
+			LOG.error("Could not plan the jobs of the container " + c, ex);
+			c.clearJobs();
+		}
+	}
+
+	private synchronized ForkJoinPool getPlanningPool() {
+		if (planningPool == null) {
+			planningPool = new ForkJoinPool(planningThreads);
+		}
+		return planningPool;
+	}
+
+	/**
+	 * The same container has been started again with the same job labels, so we
+	 * can reuse it without planning its jobs again
+	 * @param c
+	 * @param old
+	 * @return
+	 */
+	private boolean isRestart(Container c, Container old) {
+		return c.getId().equals(old.getId()) && Objects.equals(c.getName(), old.getName())
+				&& c.getPlanningKey().equals(old.getPlanningKey());
+	}
+
+	/**
+	 * Removes the retired container which is replaced by the new container: we
+	 * prefer the container with the same name and job labels, otherwise we use
+	 * the container with the same name.
+	 * @param c
+	 * @return
+	 */
+	private Retired removeRetired(Container c) {
+		String name = c.getName();
+		Retired result = null;
+		for (Retired r : retired.values()) {
+			if (name != null && name.equals(r.container.getName())) {
+				result = r;
+				if (c.getPlanningKey().equals(r.container.getPlanningKey())) {
+					break;
+				}
+			}
+		}
+		if (result != null) {
+			retired.remove(result.container.getId());
+		}
+		return result;
+	}
+
+	/**
+	 * Determines the labels which drive the planning of the jobs: the job labels
+	 * and the batch container which provides the central steps.
+	 * @param c
+	 * @return
+	 */
+	private Map<String, String> getPlanningKey(Container c) {
+		Map<String, String> result = new TreeMap<String, String>();
+		for (Entry<String, String> e : c.getAttributes().entrySet()) {
+			if (e.getKey().startsWith("job.")) {
+				result.put(e.getKey(), e.getValue());
+			}
+		}
+		Container batch = this.batchContainer;
+		result.put("#batch", batch == null ? "" : batch.getId());
+		return result;
+	}
+
+	/**
+	 * Replaces the visible containers
+	 * @param newContainers
+	 */
+	private void publish(Map<String, Container> newContainers) {
+		this.snapshot = new Snapshot(newContainers);
+	}
+
+	/**
+	 * Adds the attributes which are derived from the mounts. This is done before
+	 * the container becomes visible to the other threads.
+	 * @param c
+	 */
+	private void addAttributes(Container c) {
+		if (!c.getMounts().isEmpty()) {
+		    final StringBuilder stringDestination = new StringBuilder();
+		    c.getMounts().forEach(l -> stringDestination.append(l.getDestination()+" "));
+		    final StringBuilder stringSource = new StringBuilder();
+		    c.getMounts().forEach(l -> stringSource.append(l.getSource()+" "));
+		    final StringBuilder localPath = new StringBuilder();
+		    c.getMounts().forEach(l -> stringSource.append(l.getLocalPath()+" "));
+			
+			Map<String, String> attributes = new HashMap<String, String>();
+			attributes.put("volumes.localpath", localPath.toString().trim());
+			attributes.put("volumes.destination", stringDestination.toString().trim());
+			attributes.put("volumes.source", stringSource.toString().trim());
+			attributes.put("volumes", attributes.get("volumes.destination"));
+			c.putAttributes(attributes);
+		}
 	}
 
 	/**
@@ -204,17 +669,95 @@ public class Model {
 	 */
 	public void setBatchContainer(Container batchContainer) {
 		this.batchContainer = batchContainer;
+		this.centralSteps = null;
 	}
 
 	/**
-	 * Return the number of scheduled jobs, so that we can see if the application does anything at all
+	 * Provides the steps which are defined by the labels of the batch container.
+	 * They are only determined once and not for each planned container.
+	 * 
+	 * @param central
+	 * @return
+	 */
+	public Collection<CommandInfo> getCentralSteps(Container central) {
+		CentralSteps result = this.centralSteps;
+		// the attributes are immutable: a new instance indicates a change
+		if (result == null || result.container != central || result.attributes != central.getAttributes()) {
+			result = new CentralSteps(central, central.getAttributes(),
+					Collections.unmodifiableCollection(new JobPlanner(central).getSteps()));
+			this.centralSteps = result;
+		}
+		return result.steps;
+	}
+
+	/**
+	 * Return the number of scheduled jobs, so that we can see if the application
+	 * does anything at all. The jobs of the retired containers are still
+	 * registered in the scheduler but they are not counted.
 	 * @return
 	 */
 	public int getCountOfScheduledJobs() {
-		return this.scheduler.getCountOfScheduledJobs();
+		int result = this.scheduler.getCountOfScheduledJobs();
+		mutationLock.lock();
+		try {
+			for (Retired r : retired.values()) {
+				for (Job job : r.container.getJobs()) {
+					if (job.getId() != null) {
+						result--;
+					}
+				}
+			}
+		} finally {
+			mutationLock.unlock();
+		}
+		return result;
 	}
 	
 
+	/**
+	 * Return the number of executions which were skipped because the job was still running
+	 * @return
+	 */
+	public long getSkippedCount() {
+		long result = 0;
+		for (Container c : this.getContainers()) {
+			for (Job job : c.getJobs()) {
+				result += job.getSkippedCount();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of executions which had to wait because the job was still running
+	 * @return
+	 */
+	public long getQueuedCount() {
+		long result = 0;
+		for (Container c : this.getContainers()) {
+			for (Job job : c.getJobs()) {
+				result += job.getQueuedCount();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the number of script evaluations which have been cancelled because they took too long
+	 * @return
+	 */
+	public long getScriptTimeoutCount() {
+		return ScriptEnginePool.getTimeoutCount();
+	}
+
+	/**
+	 * Return the number of script evaluation threads which are still busy with a script that has timed out
+	 * @return
+	 */
+	public int getStuckScriptCount() {
+		return ScriptEnginePool.getStuckCount();
+	}
+
 	public String schedule(String schedule, Job job) {
 		String result = null;
 		if (job.isValid()) {
@@ -230,7 +773,49 @@ public class Model {
 
 
 	public void stopScheduler() {
-		this.scheduler.stop();;
+		try {
+			this.scheduler.stop();;
+		} finally {
+			if (this.scheduler.getExecutor() instanceof ExecutionPool) {
+				((ExecutionPool) this.scheduler.getExecutor()).stop();
+			}
+			mutationLock.lock();
+			try {
+				if (this.retireTimer != null) {
+					this.retireTimer.shutdownNow();
+					this.retireTimer = null;
+				}
+			} finally {
+				mutationLock.unlock();
+			}
+			if (this.fireStore != null) {
+				this.fireStore.close();
+			}
+			if (this.docker != null) {
+				this.docker.saveSnapshot();
+			}
+		}
+	}
+
+	/**
+	 * Records the successful execution of a job so that we can catch up missed
+	 * executions after a restart
+	 * 
+	 * @param job
+	 * @param time
+	 */
+	public void recordExecution(Job job, long time) {
+		if (this.fireStore != null && job.getOwner() != null) {
+			this.fireStore.record(FireStore.getKey(job.getOwner().getName(), job.getName(), job.getSchedule()), time);
+		}
+	}
+
+	public FireStore getFireStore() {
+		return this.fireStore;
+	}
+
+	public void setFireStore(FireStore fireStore) {
+		this.fireStore = fireStore;
 	}
 
 
@@ -262,4 +847,52 @@ public class Model {
 	}
 
 
+
+	/**
+	 * Immutable state of the containers with the indexes by id and by name
+	 */
+	private static class Snapshot {
+		private final Map<String, Container> byId;
+		private final Map<String, Container> byName;
+
+		Snapshot(Map<String, Container> containers) {
+			Map<String, Container> names = new HashMap<String, Container>();
+			for (Container c : containers.values()) {
+				if (!c.isDeleted() && c.getName() != null) {
+					names.putIfAbsent(c.getName(), c);
+				}
+			}
+			this.byId = Collections.unmodifiableMap(containers);
+			this.byName = Collections.unmodifiableMap(names);
+		}
+	}
+
+	/**
+	 * Stopped container with the time when it has been retired
+	 */
+	private static class Retired {
+		private final Container container;
+		private final long time;
+
+		Retired(Container container, long time) {
+			this.container = container;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Parsed steps of the batch container
+	 */
+	private static class CentralSteps {
+		private final Container container;
+		private final Map<String, String> attributes;
+		private final Collection<CommandInfo> steps;
+
+		CentralSteps(Container container, Map<String, String> attributes, Collection<CommandInfo> steps) {
+			this.container = container;
+			this.attributes = attributes;
+			this.steps = steps;
+		}
+	}
+
 }
@@ -1,7 +1,11 @@
 package ch.pschatzmann.docker.jobs.model.scripting;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -9,13 +13,22 @@ import ch.pschatzmann.docker.jobs.model.Utils;
 
 /**
  * Template engine with replaces all strings indicated as {parameter} with their
- * corresponding values.
+ * corresponding values. The templates are parsed only once into a list of
+ * literals and variables which is cached, so the substitution is done in a
+ * single pass.
  * 
  * @author pschatzmann
  *
  */
 public class CurlyBracesSubstitutionProcessor implements IProcessor {
 	private static final Logger LOG = Logger.getLogger(CurlyBracesSubstitutionProcessor.class);
+	private static final int MAX_TEMPLATES = 10000;
+	private static final int MAX_BUFFER_SIZE = 64 * 1024;
+	private static final long MISS_LOG_INTERVAL_MS = 60 * 1000;
+	private static final Map<String, List<Segment>> templates = new ConcurrentHashMap<String, List<Segment>>();
+	private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(StringBuilder::new);
+	private static final AtomicLong lastMissLog = new AtomicLong(-MISS_LOG_INTERVAL_MS);
+	private static final AtomicLong suppressedMisses = new AtomicLong();
 	private Map<String, String> map = new HashMap<String, String>();
 	private String start = "{";
 	private String end = "}";
@@ -43,43 +56,114 @@ public class CurlyBracesSubstitutionProcessor implements IProcessor {
 	 * Main function
 	 */
 	public String getValue(String str) {
-		String result = str;
-		int startPos = result.indexOf(start);
-		int lenStart = start.length();
-		// process until we do not find any start characters any more
-		while (startPos > -1) {
-			int endPos = result.indexOf(end, startPos);
-			String key = result.substring(startPos + lenStart, endPos);
-			String newValue = map.get(key);
-			if (!Utils.isEmpty(newValue)) {
-				result = result.replace(expand(key), newValue);
-				// the start does not need to be increased because then length
-				// is decreased by 2 characters
+		List<Segment> segments = getSegments(str);
+		StringBuilder sb = buffer.get();
+		sb.setLength(0);
+		for (Segment segment : segments) {
+			if (segment.variable) {
+				String newValue = map.get(segment.text);
+				if (!Utils.isEmpty(newValue)) {
+					sb.append(newValue);
+				} else {
+					// the current variable is not substituted
+					sb.append(start).append(segment.text).append(end);
+					logMissing(segment.text);
+				}
 			} else {
-				// the current variable is not substituted. we log an error and
-				// process the next one, therefore
-				// we increase the start
-				startPos++;
-				LOG.error("Could not find the variable '" + key + "' available values are: "
-						+ Utils.toString(map.keySet(), ", "));
+				sb.append(segment.text);
 			}
-			startPos = result.indexOf(start, startPos);
+		}
+		String result = sb.toString();
+		if (sb.capacity() > MAX_BUFFER_SIZE) {
+			buffer.remove();
 		}
 		return result;
 	}
 
 	/**
-	 * Determines the string that needs to be replaced
+	 * Provides the parsed template from the cache
 	 * 
-	 * @param value
+	 * @param str
 	 * @return
 	 */
-	private String expand(String value) {
-		StringBuffer sb = new StringBuffer();
-		sb.append(start);
-		sb.append(value);
-		sb.append(end);
-		return sb.toString();
+	private List<Segment> getSegments(String str) {
+		String key = start + "\0" + end + "\0" + str;
+		List<Segment> result = templates.get(key);
+		if (result == null) {
+			result = parse(str);
+			if (templates.size() >= MAX_TEMPLATES) {
+				templates.clear();
+			}
+			templates.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the template into literals and variables
+	 * 
+	 * @param str
+	 * @return
+	 */
+	private List<Segment> parse(String str) {
+		List<Segment> result = new ArrayList<Segment>();
+		int lenStart = start.length();
+		int pos = 0;
+		int startPos = str.indexOf(start);
+		while (startPos > -1) {
+			int endPos = str.indexOf(end, startPos + lenStart);
+			if (endPos < 0) {
+				throw new IllegalArgumentException("The variable is not terminated with '" + end + "' in: " + str);
+			}
+			// for nested start characters only the innermost one starts the variable
+			int inner = str.lastIndexOf(start, endPos - lenStart);
+			if (inner > startPos) {
+				startPos = inner;
+			}
+			if (startPos > pos) {
+				result.add(new Segment(str.substring(pos, startPos), false));
+			}
+			result.add(new Segment(str.substring(startPos + lenStart, endPos), true));
+			pos = endPos + end.length();
+			startPos = str.indexOf(start, pos);
+		}
+		if (pos < str.length()) {
+			result.add(new Segment(str.substring(pos), false));
+		}
+		return result;
+	}
+
+	/**
+	 * Logs the missing variables at most once per minute
+	 * 
+	 * @param key
+	 */
+	private void logMissing(String key) {
+		long now = System.currentTimeMillis();
+		long last = lastMissLog.get();
+		if (now - last >= MISS_LOG_INTERVAL_MS && lastMissLog.compareAndSet(last, now)) {
+			long suppressed = suppressedMisses.getAndSet(0);
+			LOG.error("Could not find the variable '" + key + "' in " + map.size() + " values"
+					+ (suppressed > 0 ? " (" + suppressed + " further missing variables have not been logged)" : ""));
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("available values are: " + Utils.toString(map.keySet(), ", "));
+			}
+		} else {
+			suppressedMisses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Literal text or name of a variable
+	 */
+	private static class Segment {
+		private final String text;
+		private final boolean variable;
+
+		Segment(String text, boolean variable) {
+			this.text = text;
+			this.variable = variable;
+		}
 	}
 
 }
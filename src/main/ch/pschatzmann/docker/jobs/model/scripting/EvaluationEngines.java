@@ -1,6 +1,8 @@
 package ch.pschatzmann.docker.jobs.model.scripting;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
@@ -88,7 +90,9 @@ public class EvaluationEngines {
 	}
 
 	/**
-	 * Evaluate agaist the scripting engine
+	 * Evaluate agaist the scripting engine. A condition which can not be evaluated
+	 * within scriptTimeoutMs is not valid. If the evaluation could not be started
+	 * at all we throw a RejectedExecutionException.
 	 * @param condition
 	 * @return
 	 */
@@ -97,6 +101,12 @@ public class EvaluationEngines {
 		if (!Utils.isEmpty(condition)) {
 			try {
 				result = "true".equalsIgnoreCase(this.getScriptingProcessor().getValue(condition));
+			} catch (RejectedExecutionException e) {
+				// the condition has not been evaluated at all
+				throw e;
+			} catch (TimeoutException e) {
+				LOG.error("The evaluation of the expression has timed out "+condition);
+				result =false;
 			} catch (Exception e) {
 				LOG.error("Could not evaluate the expression "+condition);
 				result =false;
@@ -0,0 +1,457 @@
+package ch.pschatzmann.docker.jobs.model.scripting;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.apache.log4j.Logger;
+
+import ch.pschatzmann.docker.jobs.model.Utils;
+
+/**
+ * Pool of script engines per scripting language. Creating an engine is
+ * expensive, so we reuse them. Each engine is only used by one thread at a
+ * time and keeps a cache of the scripts which it has compiled.
+ *
+ * Each engine keeps its bindings. Before an evaluation only the parameters
+ * which differ from the last evaluation are updated and the variables which
+ * have been defined by the last script are removed, so the state of one
+ * evaluation is not visible to the next one.
+ * 
+ * With eval the scripts are executed on a fixed number of dedicated threads
+ * (scriptEvalThreads) and we wait at most scriptTimeoutMs for the result. If a
+ * script does not terminate in time its thread is interrupted and the engine is
+ * discarded, because it is still in use by the script. The time is measured
+ * from the start of the execution, not from the submission. A script which does
+ * not react to the interrupt keeps its thread: it is counted as stuck. As long
+ * as it is running, the same script with the same parameters fails
+ * immediately. If no evaluation thread becomes available within
+ * scriptTimeoutMs we throw a RejectedExecutionException: this is an error and
+ * not an invalid condition.
+ *
+ * @author pschatzmann
+ *
+ */
+public class ScriptEnginePool {
+	private static final Logger LOG = Logger.getLogger(ScriptEnginePool.class);
+	private static final int MAX_COMPILED_SCRIPTS = 1000;
+	private static final ScriptEngineManager manager = new ScriptEngineManager();
+	private static final Map<String, Deque<PooledEngine>> pools = new ConcurrentHashMap<String, Deque<PooledEngine>>();
+	private static final int maxIdleEngines = Integer.parseInt(Utils.getProperty("scriptEnginePoolSize",
+			String.valueOf(Runtime.getRuntime().availableProcessors())));
+	private static volatile long timeoutMs = Long.parseLong(Utils.getProperty("scriptTimeoutMs", "5000"));
+	private static final Set<String> warmedUp = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong timeoutCount = new AtomicLong();
+	private static final AtomicInteger stuckCount = new AtomicInteger();
+	private static final Set<String> timedOutScripts = ConcurrentHashMap.newKeySet();
+	private static final int evalThreads = Integer.parseInt(Utils.getProperty("scriptEvalThreads",
+			String.valueOf(Math.max(2, Runtime.getRuntime().availableProcessors()))));
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(evalThreads, evalThreads, 60,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread thread = new Thread(r, "script-eval");
+				thread.setDaemon(true);
+				return thread;
+			});
+	static {
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Evaluates the script with an engine of the pool. If the evaluation takes
+	 * longer then scriptTimeoutMs it is cancelled and we throw a
+	 * TimeoutException. The same is done right away while the same evaluation is
+	 * still stuck. If the evaluation can not be started because all threads are
+	 * busy we throw a RejectedExecutionException. With a timeout of 0 the script
+	 * is evaluated in the current thread without any limit.
+	 * 
+	 * @param engineName
+	 * @param script
+	 * @param parameters
+	 * @return
+	 * @throws Exception
+	 */
+	public static Object eval(String engineName, String script, Map<String, String> parameters) throws Exception {
+		long timeoutMs = ScriptEnginePool.timeoutMs;
+		if (timeoutMs <= 0) {
+			PooledEngine engine = borrow(engineName);
+			try {
+				return engine.eval(script, parameters);
+			} finally {
+				release(engine);
+			}
+		}
+
+		// the key is only needed if there are any stuck evaluations
+		String scriptKey = timedOutScripts.isEmpty() ? null : getKey(engineName, script, parameters);
+		if (scriptKey != null && timedOutScripts.contains(scriptKey)) {
+			timeoutCount.incrementAndGet();
+			throw new TimeoutException("The same evaluation is still running after its timeout: " + script);
+		}
+
+		PooledEngine engine = borrow(engineName);
+		Evaluation evaluation = new Evaluation(engine, script, parameters);
+		Future<Object> future = executor.submit(evaluation);
+		try {
+			// the deadline starts with the execution
+			if (!evaluation.awaitStart(timeoutMs) && evaluation.cancelIfQueued()) {
+				future.cancel(false);
+				release(engine);
+				LOG.error("The evaluation of the script could not be started within " + timeoutMs
+						+ " ms because all " + evalThreads + " evaluation threads are busy: " + script);
+				throw new RejectedExecutionException("All evaluation threads are busy: " + script);
+			}
+			long remainingMs = evaluation.getStartTime() + timeoutMs - System.currentTimeMillis();
+			Object result = future.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+			release(engine);
+			return result;
+		} catch (TimeoutException ex) {
+			timeoutCount.incrementAndGet();
+			if (evaluation.abandon() == Evaluation.RUNNING) {
+				// the engine is still busy with the script: we do not give it back. The
+				// same evaluation fails immediately until the script has terminated.
+				evaluation.setKey(getKey(engineName, script, parameters));
+				LOG.warn("The evaluation of the script has been cancelled after " + timeoutMs + " ms: " + script);
+			} else {
+				// the script has terminated in the meantime
+				release(engine);
+			}
+			future.cancel(true);
+			throw ex;
+		} catch (ExecutionException ex) {
+			release(engine);
+			throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+		} catch (InterruptedException ex) {
+			evaluation.abandon();
+			future.cancel(true);
+			throw ex;
+		}
+	}
+
+	private static String getKey(String engineName, String script, Map<String, String> parameters) {
+		return engineName.toLowerCase() + "\0" + script + "\0" + parameters.hashCode();
+	}
+
+	/**
+	 * Creates the idle engines for the indicated language, so that the first
+	 * evaluations do not need to wait for the creation of an engine. This is
+	 * only done once per language.
+	 * 
+	 * @param engineName
+	 */
+	public static void warmUp(String engineName) {
+		if (warmedUp.add(engineName.toLowerCase())) {
+			int count = Math.max(1, maxIdleEngines - getIdleCount(engineName));
+			for (int j = 0; j < count; j++) {
+				release(create(engineName));
+			}
+		}
+	}
+
+	/**
+	 * Defines the maximum time for an evaluation: 0 for no limit
+	 * 
+	 * @param timeoutMs
+	 */
+	public static void setTimeoutMs(long timeoutMs) {
+		ScriptEnginePool.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Number of threads which evaluate the scripts
+	 * 
+	 * @return
+	 */
+	public static int getEvalThreads() {
+		return evalThreads;
+	}
+
+	/**
+	 * Number of evaluation threads which are still running a script that has
+	 * timed out
+	 * 
+	 * @return
+	 */
+	public static int getStuckCount() {
+		return stuckCount.get();
+	}
+
+	/**
+	 * Number of evaluations which have been cancelled because they took too long
+	 * 
+	 * @return
+	 */
+	public static long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * Provides an engine for the indicated language. The engine must be given
+	 * back with release.
+	 *
+	 * @param engineName
+	 * @return
+	 */
+	public static PooledEngine borrow(String engineName) {
+		PooledEngine result = getPool(engineName).pollFirst();
+		if (result == null) {
+			result = create(engineName);
+		}
+		return result;
+	}
+
+	private static PooledEngine create(String engineName) {
+		ScriptEngine engine;
+		synchronized (manager) {
+			engine = manager.getEngineByName(engineName);
+		}
+		if (engine == null) {
+			throw new RuntimeException("The scripting engine could not be found: " + engineName);
+		}
+		LOG.debug("New script engine for " + engineName);
+		return new PooledEngine(engineName, engine);
+	}
+
+	/**
+	 * Gives the engine back to the pool
+	 *
+	 * @param engine
+	 */
+	public static void release(PooledEngine engine) {
+		Deque<PooledEngine> pool = getPool(engine.engineName);
+		if (pool.size() < maxIdleEngines) {
+			pool.offerFirst(engine);
+		}
+	}
+
+	/**
+	 * Number of idle engines for the indicated language
+	 *
+	 * @param engineName
+	 * @return
+	 */
+	public static int getIdleCount(String engineName) {
+		return getPool(engineName).size();
+	}
+
+	private static Deque<PooledEngine> getPool(String engineName) {
+		return pools.computeIfAbsent(engineName.toLowerCase(), name -> new ConcurrentLinkedDeque<PooledEngine>());
+	}
+
+	/**
+	 * Evaluation of a script on an evaluation thread. If the caller gives up
+	 * while the script is running, the thread is counted as stuck until the
+	 * script terminates.
+	 */
+	private static class Evaluation implements Callable<Object> {
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int ABANDONED = 3;
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final PooledEngine engine;
+		private final String script;
+		private final Map<String, String> parameters;
+		private volatile long startTime;
+		private String key;
+		private boolean finished;
+
+		Evaluation(PooledEngine engine, String script, Map<String, String> parameters) {
+			this.engine = engine;
+			this.script = script;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			startTime = System.currentTimeMillis();
+			if (!state.compareAndSet(QUEUED, RUNNING)) {
+				throw new CancellationException();
+			}
+			started.countDown();
+			try {
+				return engine.eval(script, parameters);
+			} finally {
+				if (!state.compareAndSet(RUNNING, DONE)) {
+					synchronized (this) {
+						finished = true;
+						if (key != null) {
+							timedOutScripts.remove(key);
+						}
+					}
+					int stuck = stuckCount.decrementAndGet();
+					LOG.info("The script which has timed out has terminated: " + stuck + " evaluation threads are stuck");
+				}
+			}
+		}
+
+		/**
+		 * Waits until the execution has started
+		 * 
+		 * @param timeoutMs
+		 * @return false if it has not been started within the timeout
+		 * @throws InterruptedException
+		 */
+		boolean awaitStart(long timeoutMs) throws InterruptedException {
+			return started.await(timeoutMs, TimeUnit.MILLISECONDS);
+		}
+
+		long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Blocks the same evaluation while the abandoned script is running
+		 * 
+		 * @param key
+		 */
+		synchronized void setKey(String key) {
+			if (!finished) {
+				this.key = key;
+				timedOutScripts.add(key);
+			}
+		}
+
+		/**
+		 * Cancels the evaluation if it has not been started yet
+		 * 
+		 * @return true if it has been cancelled
+		 */
+		boolean cancelIfQueued() {
+			return state.compareAndSet(QUEUED, ABANDONED);
+		}
+
+		/**
+		 * The caller does not wait for the result any more
+		 * 
+		 * @return the state before: QUEUED, RUNNING or DONE
+		 */
+		int abandon() {
+			if (state.compareAndSet(QUEUED, ABANDONED)) {
+				return QUEUED;
+			}
+			int stuck = stuckCount.incrementAndGet();
+			if (state.compareAndSet(RUNNING, ABANDONED)) {
+				if (stuck >= evalThreads) {
+					LOG.error("All " + evalThreads + " evaluation threads are stuck in scripts which have timed out");
+				}
+				return RUNNING;
+			}
+			stuckCount.decrementAndGet();
+			return DONE;
+		}
+	}
+
+	/**
+	 * Script engine with its compiled scripts
+	 */
+	public static class PooledEngine {
+		private String engineName;
+		private ScriptEngine engine;
+		private Map<String, CompiledScript> compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CompiledScript> eldest) {
+				return size() > MAX_COMPILED_SCRIPTS;
+			}
+		};
+
+		private Bindings bindings;
+		private ScriptContext context;
+
+		PooledEngine(String engineName, ScriptEngine engine) {
+			this.engineName = engineName;
+			this.engine = engine;
+		}
+
+		/**
+		 * Evaluates the script with the indicated parameters
+		 *
+		 * @param script
+		 * @param parameters
+		 * @return
+		 * @throws ScriptException
+		 */
+		public Object eval(String script, Map<String, String> parameters) throws ScriptException {
+			setParameters(parameters);
+			CompiledScript compiled = compile(script);
+			return compiled != null ? compiled.eval(context) : engine.eval(script, context);
+		}
+
+		/**
+		 * Updates the bindings of the engine, so that they contain exactly the
+		 * parameters. Only the changed values are replaced: the variables and
+		 * changed parameters of the last evaluation are removed or reset, so that no
+		 * state is passed on to the next container.
+		 *
+		 * @param parameters
+		 */
+		private void setParameters(Map<String, String> parameters) {
+			if (bindings != null) {
+				for (String key : new ArrayList<String>(bindings.keySet())) {
+					if (!parameters.containsKey(key)) {
+						bindings.remove(key);
+						if (bindings.containsKey(key)) {
+							// e.g. variables which were declared with var can not be removed
+							bindings = null;
+							break;
+						}
+					}
+				}
+			}
+			if (bindings == null) {
+				bindings = engine.createBindings();
+				context = new SimpleScriptContext();
+				context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+			}
+			for (Entry<String, String> e : parameters.entrySet()) {
+				Object value = bindings.get(e.getKey());
+				if (value == null ? e.getValue() != null || !bindings.containsKey(e.getKey())
+						: !value.equals(e.getValue())) {
+					bindings.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+
+		private CompiledScript compile(String script) throws ScriptException {
+			if (!(engine instanceof Compilable)) {
+				return null;
+			}
+			CompiledScript result = compiledScripts.get(script);
+			if (result == null) {
+				result = ((Compilable) engine).compile(script);
+				compiledScripts.put(script, result);
+			}
+			return result;
+		}
+	}
+
+}
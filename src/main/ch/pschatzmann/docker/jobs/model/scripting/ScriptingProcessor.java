@@ -1,27 +1,29 @@
 package ch.pschatzmann.docker.jobs.model.scripting;
 
 import java.util.Map;
-import java.util.Map.Entry;
-
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 
+/**
+ * Evaluates the expressions with a JSR-223 scripting engine. The engines are
+ * taken from the ScriptEnginePool and each evaluation gets its own bindings
+ * with the attributes. An evaluation which takes longer than
+ * scriptTimeoutMs is cancelled with a TimeoutException.
+ *
+ * @author pschatzmann
+ *
+ */
 public class ScriptingProcessor implements IProcessor {
-	private ScriptEngine engine;
-		
-	public ScriptingProcessor(Map<String,String> map, String engineName) {
-        ScriptEngineManager manager = new ScriptEngineManager();
-        engine = manager.getEngineByName(engineName);
-        if (engine==null) {
-        	throw new RuntimeException("The scripting engine could not be found: "+engineName);
-        }
-        for (Entry<String,String> e : map.entrySet()) {
-            engine.put(e.getKey(),e.getValue());       	
-        }
+	private Map<String, String> map;
+	private String engineName;
+
+	public ScriptingProcessor(Map<String, String> map, String engineName) {
+		this.map = map;
+		this.engineName = engineName;
+		// make sure that the engines exist
+		ScriptEnginePool.warmUp(engineName);
 	}
-	
+
 	public String getValue(String expression) throws Exception {
-		return  engine.eval(expression).toString();
+		return ScriptEnginePool.eval(engineName, expression, map).toString();
 	}
 
 }
@@ -0,0 +1,62 @@
+package ch.pschatzmann.docker.jobs.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.pschatzmann.docker.jobs.api.CronScheduler;
+import ch.pschatzmann.docker.jobs.model.Container;
+import ch.pschatzmann.docker.jobs.model.JobPlanner;
+import ch.pschatzmann.docker.jobs.model.Model;
+
+/**
+ * Measures the time which is needed to parse the job labels of a container
+ * into the steps of the JobPlanner. This is not a unit test: start it with
+ *
+ * java ch.pschatzmann.docker.jobs.tests.BenchJobPlanner [jobs] [iterations]
+ *
+ * Each job is defined by 5 labels and one command per step.
+ *
+ * @author pschatzmann
+ *
+ */
+public class BenchJobPlanner {
+	private static final int STEPS_PER_JOB = 3;
+
+	public static void main(String[] args) throws Exception {
+		int jobCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		Model model = new Model(new CronScheduler());
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "bench");
+		attributes.put("name", "bench");
+		attributes.put("job.scriptengine", "javascript");
+		for (int j = 0; j < jobCount; j++) {
+			String job = "job.job" + j + ".";
+			attributes.put(job + "schedule", "0 " + (j % 24) + " * * *");
+			attributes.put(job + "condition", "true");
+			attributes.put(job + "level", "Local");
+			attributes.put(job + "overlap", "skip");
+			attributes.put(job + "executor", "Simulator");
+			for (int s = 1; s <= STEPS_PER_JOB; s++) {
+				attributes.put(job + "command." + s, "'echo step " + s + "'");
+			}
+		}
+		Container container = new Container(model, attributes);
+		System.out.println("Labels per container: " + (attributes.size() - 2));
+
+		// warm up
+		run(container, iterations / 10);
+		long start = System.nanoTime();
+		run(container, iterations);
+		long ns = (System.nanoTime() - start) / iterations;
+		System.out.println("Parsing the labels: " + ns / 1000 + " us per container");
+	}
+
+	private static void run(Container container, int iterations) {
+		for (int j = 0; j < iterations; j++) {
+			new JobPlanner(container);
+		}
+	}
+
+}
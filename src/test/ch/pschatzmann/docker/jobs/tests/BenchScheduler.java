@@ -0,0 +1,90 @@
+package ch.pschatzmann.docker.jobs.tests;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.pschatzmann.docker.jobs.api.ExecutionPool;
+import ch.pschatzmann.docker.jobs.api.TimingWheelScheduler;
+import ch.pschatzmann.docker.jobs.model.Container;
+import ch.pschatzmann.docker.jobs.model.Job;
+import ch.pschatzmann.docker.jobs.model.Model;
+
+/**
+ * Measures the lag between the planned and the actual start of the jobs when
+ * 10000 jobs per minute are executed by the TimingWheelScheduler. The jobs
+ * use schedules with a seconds field so that they are spread over the whole
+ * minute. This is not a unit test: start it with
+ *
+ * java ch.pschatzmann.docker.jobs.tests.BenchScheduler [jobs] [minutes]
+ *
+ * @author pschatzmann
+ *
+ */
+public class BenchScheduler {
+	private static final int JOBS_PER_CONTAINER = 10;
+
+	public static void main(String[] args) throws Exception {
+		int jobCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int minutes = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		ExecutionPool pool = new ExecutionPool(1000, JOBS_PER_CONTAINER, 1000, jobCount, false);
+		TimingWheelScheduler scheduler = new TimingWheelScheduler(pool);
+		Model model = new Model(scheduler);
+		long[] lags = new long[jobCount * (minutes + 1)];
+		AtomicInteger fired = new AtomicInteger();
+		long end = System.currentTimeMillis() + minutes * 60 * 1000;
+
+		Container container = null;
+		for (int j = 0; j < jobCount; j++) {
+			if (j % JOBS_PER_CONTAINER == 0) {
+				container = createContainer(model, "container" + j);
+			}
+			int second = j % 60;
+			String schedule = second + " * * * * *";
+			scheduler.schedule(schedule, new Job("job" + j, schedule, container) {
+				@Override
+				public void run() {
+					long now = System.currentTimeMillis();
+					if (now < end) {
+						// planned time: the last start of the scheduled second
+						long planned = now / 60000 * 60000 + second * 1000;
+						if (planned > now) {
+							planned -= 60000;
+						}
+						int pos = fired.getAndIncrement();
+						if (pos < lags.length) {
+							lags[pos] = now - planned;
+						}
+					}
+				}
+			});
+		}
+
+		System.out.println("Scheduled " + jobCount + " jobs with " + scheduler.getCountOfTriggers()
+				+ " triggers: running for " + minutes + " minutes");
+		scheduler.start();
+		Thread.sleep(end - System.currentTimeMillis() + 1000);
+		scheduler.stop();
+		pool.stop();
+
+		int count = Math.min(fired.get(), lags.length);
+		long[] result = Arrays.copyOf(lags, count);
+		Arrays.sort(result);
+		System.out.println("Executions: " + count + " (expected about " + jobCount * minutes + ")");
+		if (count > 0) {
+			System.out.println("Lag in ms: p50=" + result[count / 2] + " p99=" + result[count * 99 / 100] + " max="
+					+ result[count - 1]);
+		}
+		System.out.println(pool);
+	}
+
+	private static Container createContainer(Model model, String id) {
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", id);
+		attributes.put("name", id);
+		return new Container(model, attributes);
+	}
+
+}
@@ -0,0 +1,208 @@
+package ch.pschatzmann.docker.jobs.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.core.command.EventsResultCallback;
+
+import ch.pschatzmann.docker.jobs.api.EventCoalescer;
+import ch.pschatzmann.docker.jobs.api.EventSubscription;
+
+/**
+ * Processing of Docker events
+ *
+ * @author pschatzmann
+ *
+ */
+public class TestEvents {
+
+	@Test
+	public void testCoalescing() throws Exception {
+		List<String> result = new ArrayList<String>();
+		CountDownLatch latch = new CountDownLatch(2);
+		EventCoalescer coalescer = new EventCoalescer(evt -> {
+			result.add(evt.getId() + ":" + evt.getStatus());
+			latch.countDown();
+		}, 100, "start|restart|die");
+
+		coalescer.add(event("start", "a"));
+		coalescer.add(event("die", "a"));
+		coalescer.add(event("die", "b"));
+		coalescer.add(event("start", "a"));
+		coalescer.add(event("exec_start", "a"));
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[b:die, a:start]", result.toString());
+		Assert.assertEquals(5, coalescer.getReceivedCount());
+		Assert.assertEquals(2, coalescer.getMergedCount());
+		Assert.assertEquals(1, coalescer.getDroppedCount());
+		Assert.assertEquals(0, coalescer.getPendingCount());
+		coalescer.stop();
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		StubEventSource source = new StubEventSource();
+		long now = System.currentTimeMillis() / 1000;
+		source.replayEvents.add(event("start", "a", now - 5));
+		source.replayEvents.add(event("die", "b", now - 4));
+		List<Event> received = new CopyOnWriteArrayList<Event>();
+		AtomicInteger reconciled = new AtomicInteger();
+		EventSubscription subscription = createSubscription(source, received, reconciled);
+
+		// the replay starts at the cursor and the live stream continues after it
+		subscription.start(now - 10);
+		source.awaitConnect();
+		source.live.onComplete();
+		source.awaitConnect();
+		subscription.stop();
+
+		Assert.assertEquals(3, source.requests.size());
+		Assert.assertEquals((now - 10) + "-null", source.requests.get(0));
+		long until = Long.parseLong(source.requests.get(1).split("-")[1]);
+		Assert.assertEquals((now - 10) + "-" + until, source.requests.get(1));
+		Assert.assertEquals(until + "-null", source.requests.get(2));
+		Assert.assertEquals(until, subscription.getCursor());
+		Assert.assertEquals(2, received.size());
+		Assert.assertEquals(1, subscription.getReconnectCount());
+		Assert.assertEquals(0, subscription.getReconciliationCount());
+		Assert.assertEquals(0, reconciled.get());
+	}
+
+	@Test
+	public void testReconcileGap() throws Exception {
+		StubEventSource source = new StubEventSource();
+		long now = System.currentTimeMillis() / 1000;
+		List<Event> received = new CopyOnWriteArrayList<Event>();
+		AtomicInteger reconciled = new AtomicInteger();
+		System.setProperty("eventMaxGapSec", "5");
+		EventSubscription subscription = createSubscription(source, received, reconciled);
+		System.clearProperty("eventMaxGapSec");
+
+		// the gap is too long to be replayed
+		subscription.start(now - 100);
+		source.awaitConnect();
+		source.live.onComplete();
+		source.awaitConnect();
+		subscription.stop();
+
+		Assert.assertEquals(2, source.requests.size());
+		Assert.assertTrue(source.requests.get(1).endsWith("-null"));
+		Assert.assertTrue(subscription.getCursor() >= now);
+		Assert.assertEquals(1, subscription.getReconciliationCount());
+		Assert.assertEquals(1, reconciled.get());
+	}
+
+	@Test
+	public void testReconcileBuffer() throws Exception {
+		StubEventSource source = new StubEventSource();
+		long now = System.currentTimeMillis() / 1000;
+		source.replayEvents.add(event("start", "a", now - 5));
+		source.replayEvents.add(event("die", "b", now - 4));
+		List<Event> received = new CopyOnWriteArrayList<Event>();
+		AtomicInteger reconciled = new AtomicInteger();
+		System.setProperty("eventBufferSize", "2");
+		EventSubscription subscription = createSubscription(source, received, reconciled);
+		System.clearProperty("eventBufferSize");
+
+		// the replay might have lost some events
+		subscription.start(now - 10);
+		source.awaitConnect();
+		source.live.onComplete();
+		source.awaitConnect();
+		subscription.stop();
+
+		Assert.assertEquals(3, source.requests.size());
+		Assert.assertEquals(2, received.size());
+		Assert.assertEquals(1, subscription.getReconciliationCount());
+		Assert.assertEquals(1, reconciled.get());
+	}
+
+	@Test
+	public void testBackoff() throws Exception {
+		StubEventSource source = new StubEventSource();
+		source.failures.set(3);
+		List<Event> received = new CopyOnWriteArrayList<Event>();
+		AtomicInteger reconciled = new AtomicInteger();
+		System.setProperty("eventReconnectDelayMs", "20");
+		EventSubscription subscription = createSubscription(source, received, reconciled);
+		System.clearProperty("eventReconnectDelayMs");
+
+		// the delay is doubled after each failed connect
+		subscription.start();
+		source.awaitConnect();
+		subscription.stop();
+
+		Assert.assertEquals(3, subscription.getReconnectCount());
+		Assert.assertEquals(4, source.connectTimes.size());
+		for (int j = 1; j < 4; j++) {
+			long delay = source.connectTimes.get(j) - source.connectTimes.get(j - 1);
+			Assert.assertTrue("delay " + delay, delay >= 20 << (j - 1));
+		}
+		Assert.assertEquals(0, reconciled.get());
+	}
+
+	private EventSubscription createSubscription(StubEventSource source, List<Event> received, AtomicInteger reconciled) {
+		System.setProperty("eventReconnectDelayMs", System.getProperty("eventReconnectDelayMs", "10"));
+		try {
+			return new EventSubscription(source, received::add, reconciled::incrementAndGet);
+		} finally {
+			System.clearProperty("eventReconnectDelayMs");
+		}
+	}
+
+	private Event event(String status, String id) {
+		return event(status, id, System.currentTimeMillis() / 1000);
+	}
+
+	private Event event(String status, String id, long time) {
+		return new Event(status, id, "image", time).withType(EventType.CONTAINER);
+	}
+
+	/**
+	 * Records the requested events. The replay provides the replayEvents and the
+	 * live stream stays open until the test ends it.
+	 */
+	private static class StubEventSource implements EventSubscription.EventSource {
+		private List<String> requests = new CopyOnWriteArrayList<String>();
+		private List<Long> connectTimes = new CopyOnWriteArrayList<Long>();
+		private List<Event> replayEvents = new ArrayList<Event>();
+		private AtomicInteger failures = new AtomicInteger();
+		private Semaphore connects = new Semaphore(0);
+		private volatile EventsResultCallback live;
+
+		@Override
+		public EventsResultCallback events(long since, Long until, EventsResultCallback callback) {
+			requests.add(since + "-" + until);
+			if (until == null) {
+				connectTimes.add(System.currentTimeMillis());
+				if (failures.getAndDecrement() > 0) {
+					throw new IllegalStateException("connection refused");
+				}
+				live = callback;
+				connects.release();
+			} else {
+				for (Event evt : replayEvents) {
+					callback.onNext(evt);
+				}
+				callback.onComplete();
+			}
+			return callback;
+		}
+
+		void awaitConnect() throws InterruptedException {
+			Assert.assertTrue(connects.tryAcquire(5, TimeUnit.SECONDS));
+		}
+	}
+
+}
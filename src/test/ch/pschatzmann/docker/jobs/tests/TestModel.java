@@ -1,15 +1,22 @@
 package ch.pschatzmann.docker.jobs.tests;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.junit.Assert;
@@ -18,9 +25,17 @@ import org.junit.Test;
 
 import ch.pschatzmann.docker.jobs.api.CronScheduler;
 import ch.pschatzmann.docker.jobs.api.DockerAPI;
+import ch.pschatzmann.docker.jobs.api.FireStore;
 import ch.pschatzmann.docker.jobs.api.IDocker;
+import ch.pschatzmann.docker.jobs.api.InspectCache;
 import ch.pschatzmann.docker.jobs.executors.ExecutorSimulator;
+import ch.pschatzmann.docker.jobs.model.Attributes;
 import ch.pschatzmann.docker.jobs.model.Container;
+import ch.pschatzmann.docker.jobs.model.HashedSchedule;
+import ch.pschatzmann.docker.jobs.model.Job;
+import ch.pschatzmann.docker.jobs.model.JobPlanner.CommandInfo;
+import ch.pschatzmann.docker.jobs.model.LabelTree;
+import ch.pschatzmann.docker.jobs.model.JobPlanner.Overlap;
 import ch.pschatzmann.docker.jobs.model.Model;
 import ch.pschatzmann.docker.jobs.model.ScheduleEvent;
 import ch.pschatzmann.docker.jobs.model.Utils;
@@ -224,8 +239,652 @@ public class TestModel {
 
 	}
 
+	@Test
+	public void testOverlap() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "test");
+		attributes.put("name", "container with schedule");
+		attributes.put("job.test.overlap", "skip");
+		attributes.put("job.test.schedule", "* * * * *");
+		attributes.put("job.test.command.1", "'echo test'");
+		Container container = new Container(model, attributes);
+		model.addContainer(container);
+		Assert.assertEquals(Overlap.skip, container.getJobs().iterator().next().getOverlap());
+
+		AtomicInteger executions = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Job job = new Job("blocking", "* * * * *", container) {
+			@Override
+			protected void execute() {
+				executions.incrementAndGet();
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+				}
+			}
+		};
+
+		// skip
+		job.setOverlap(Overlap.skip);
+		Thread thread = new Thread(job);
+		thread.start();
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		job.run();
+		Assert.assertEquals(1, job.getSkippedCount());
+		release.countDown();
+		thread.join(5000);
+		Assert.assertEquals(1, executions.get());
+
+		// queue: the waiting executions are combined into one
+		CountDownLatch started2 = new CountDownLatch(1);
+		CountDownLatch release2 = new CountDownLatch(1);
+		Job job2 = new Job("blocking2", "* * * * *", container) {
+			@Override
+			protected void execute() {
+				executions.incrementAndGet();
+				started2.countDown();
+				try {
+					release2.await();
+				} catch (InterruptedException ex) {
+				}
+			}
+		};
+		job2.setOverlap(Overlap.queue);
+		Thread thread2 = new Thread(job2);
+		thread2.start();
+		Assert.assertTrue(started2.await(5, TimeUnit.SECONDS));
+		job2.run();
+		job2.run();
+		Assert.assertEquals(2, job2.getQueuedCount());
+		release2.countDown();
+		thread2.join(5000);
+		Assert.assertEquals(3, executions.get());
+		Assert.assertFalse(job2.isRunning());
+	}
+
+	@Test
+	public void testFireStore() throws Exception {
+		File file = new File(Files.createTempDirectory("docker-cron").toFile(), "executions.log");
+		FireStore store = new FireStore(file);
+		store.record(FireStore.getKey("c1", "backup"), 1000);
+		store.record(FireStore.getKey("c2", "backup"), 2000);
+		for (int j = 0; j < 3000; j++) {
+			store.record(FireStore.getKey("c1", "backup"), 3000 + j);
+		}
+		store.close();
+		Assert.assertTrue(Files.readAllLines(file.toPath()).size() < 3000);
+
+		FireStore reloaded = new FireStore(file);
+		Assert.assertEquals(Long.valueOf(5999), reloaded.getLastFire(FireStore.getKey("c1", "backup")));
+		Assert.assertEquals(Long.valueOf(2000), reloaded.getLastFire(FireStore.getKey("c2", "backup")));
+		Assert.assertNull(reloaded.getLastFire(FireStore.getKey("c3", "backup")));
+		reloaded.close();
+
+		// jobs which finish after the close are only kept in memory
+		reloaded.record(FireStore.getKey("c3", "backup"), 7000);
+		Assert.assertEquals(Long.valueOf(7000), reloaded.getLastFire(FireStore.getKey("c3", "backup")));
+
+		// the same job with different schedules
+		Model model = new Model(new CronScheduler());
+		model.setFireStore(new FireStore(file));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "c1");
+		attributes.put("name", "c1");
+		Container container = new Container(model, attributes);
+		model.recordExecution(new Job("backup", "0 1 * * *", container), 8000);
+		model.recordExecution(new Job("backup", "0 2 * * *", container), 9000);
+		Assert.assertEquals(Long.valueOf(8000), model.getFireStore().getLastFire(FireStore.getKey("c1", "backup", "0 1 * * *")));
+		Assert.assertEquals(Long.valueOf(9000), model.getFireStore().getLastFire(FireStore.getKey("c1", "backup", "0 2 * * *")));
+		model.getFireStore().close();
+		model.recordExecution(new Job("backup", "0 1 * * *", container), 10000);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "1");
+		attributes.put("name", "container1");
+		attributes.put("job.backup.schedule", "0 2 * * *");
+		attributes.put("description", null);
+		Container c = new Container(model, attributes);
+		c.addMount(new Volume("data", "/var/lib/data", "/data", true));
+
+		InspectCache cache = new InspectCache(10);
+		cache.put("1", 100L, c);
+		cache.put("2", null, new Container(model, new HashMap<String, String>()));
+		File file = new File(Files.createTempDirectory("docker-cron").toFile(), "containers.snapshot");
+		cache.save(file);
+
+		InspectCache reloaded = new InspectCache(10);
+		Assert.assertEquals(2, reloaded.load(file));
+		Assert.assertNull(reloaded.get(model, "1", 200L));
+		Container result = reloaded.get(model, "1", 100L);
+		Assert.assertEquals("container1", result.getName());
+		Assert.assertEquals("0 2 * * *", result.getAttributes().get("job.backup.schedule"));
+		Assert.assertTrue(result.getAttributes().containsKey("description"));
+		Assert.assertEquals("/data", result.getMounts().iterator().next().getDestination());
+		Assert.assertNotNull(reloaded.get(model, "2", 300L));
+
+		reloaded.retain(new HashSet<String>(Arrays.asList("1")));
+		Assert.assertEquals(1, reloaded.size());
+	}
+
+	@Test
+	public void testCurrentContainer() throws Exception {
+		String id = "3f4e1c0b2a9d8e7f6a5b4c3d2e1f0a9b8c7d6e5f4a3b2c1d0e9f8a7b6c5d4e3f";
+		File dir = Files.createTempDirectory("docker-cron").toFile();
+		File cgroup = new File(dir, "cgroup");
+		Files.write(cgroup.toPath(), Arrays.asList("12:pids:/docker/" + id, "1:name=systemd:/docker/" + id));
+		Assert.assertEquals(id, DockerAPI.getContainerId(cgroup));
+		File systemd = new File(dir, "systemd");
+		Files.write(systemd.toPath(), Arrays.asList("0::/system.slice/docker-" + id + ".scope"));
+		Assert.assertEquals(id, DockerAPI.getContainerId(systemd));
+		// cgroup v2 only shows the id in the mounts
+		File mountinfo = new File(dir, "mountinfo");
+		Files.write(mountinfo.toPath(), Arrays.asList("0::/",
+				"613 591 8:1 /var/lib/docker/containers/" + id + "/hostname /etc/hostname rw,relatime - ext4 /dev/sda1 rw"));
+		Assert.assertEquals(id, DockerAPI.getContainerId(mountinfo));
+		Files.write(cgroup.toPath(), Arrays.asList("0::/"));
+		Assert.assertNull(DockerAPI.getContainerId(cgroup));
+		Assert.assertNull(DockerAPI.getContainerId(new File(dir, "missing")));
+	}
+
+	@Test
+	public void testInspectionNeeded() throws Exception {
+		Map<String, String> labels = new HashMap<String, String>();
+		labels.put("job.backup.schedule", "0 2 * * *");
+		labels.put("job.backup.command.1", "tar -czf /backup/{name}.tgz /data");
+		labels.put("description", "uses the host volumes");
+		Assert.assertFalse(DockerAPI.isInspectionNeeded(labels));
+		labels.put("job.backup.condition", "hostname != null && volumes_dir != null");
+		Assert.assertFalse(DockerAPI.isInspectionNeeded(labels));
+		labels.put("job.backup.command.2", "echo {host}");
+		Assert.assertTrue(DockerAPI.isInspectionNeeded(labels));
+		labels.remove("job.backup.command.2");
+		labels.put("job.backup.condition", "volumes.destination != ''");
+		Assert.assertTrue(DockerAPI.isInspectionNeeded(labels));
+	}
+
+	@Test
+	public void testCatchUp() throws Exception {
+		Model model = new Model(new CronScheduler());
+		File file = new File(Files.createTempDirectory("docker-cron").toFile(), "executions.log");
+		model.setFireStore(new FireStore(file));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "test");
+		attributes.put("name", "container1");
+		Container container = new Container(model, attributes);
+		CountDownLatch executed = new CountDownLatch(3);
+		Job job = new Job("test", "* * * * *", container) {
+			@Override
+			protected void execute() {
+				executed.countDown();
+			}
+		};
+		job.setValid(true);
+		model.addContainer(container);
+		model.getFireStore().record(FireStore.getKey("container1", "test"), System.currentTimeMillis() - 10 * 60000);
+
+		try {
+			System.setProperty("catchUpPolicy", "all");
+			System.setProperty("catchUpMax", "3");
+			Assert.assertEquals(3, model.catchUp());
+			Assert.assertTrue(executed.await(5, TimeUnit.SECONDS));
+
+			System.setProperty("catchUpPolicy", "none");
+			Assert.assertEquals(0, model.catchUp());
+		} finally {
+			System.clearProperty("catchUpPolicy");
+			System.clearProperty("catchUpMax");
+			model.getFireStore().close();
+		}
+	}
+
+	@Test
+	public void testCatchUpSeconds() throws Exception {
+		Model model = new Model(new CronScheduler());
+		model.setFireStore(new FireStore(new File(Files.createTempDirectory("docker-cron").toFile(), "executions.log")));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "test");
+		attributes.put("name", "container1");
+		Container container = new Container(model, attributes);
+		Job job = new Job("seconds", "*/10 * * * * *", container) {
+			@Override
+			protected void execute() {
+			}
+		};
+		job.setValid(true);
+		model.addContainer(container);
+		// the executions in the same minute as the last one are also missed
+		model.getFireStore().record(FireStore.getKey("container1", "seconds", "*/10 * * * * *"),
+				System.currentTimeMillis() - 40000);
+		try {
+			System.setProperty("catchUpPolicy", "all");
+			System.setProperty("catchUpMax", "3");
+			Assert.assertEquals(3, model.catchUp());
+		} finally {
+			System.clearProperty("catchUpPolicy");
+			System.clearProperty("catchUpMax");
+			model.getFireStore().close();
+		}
+	}
+
+	@Test
+	public void testRecordSuccess() throws Exception {
+		Model model = new Model(new CronScheduler());
+		model.setFireStore(new FireStore(new File(Files.createTempDirectory("docker-cron").toFile(), "executions.log")));
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "test");
+		attributes.put("name", "container1");
+		Container container = new Container(model, attributes);
+		AtomicInteger fail = new AtomicInteger(1);
+		Job job = new Job("test", "* * * * *", container) {
+			@Override
+			protected void execute() {
+				if (fail.get() > 0) {
+					throw new IllegalStateException("failed");
+				}
+			}
+		};
+		String key = FireStore.getKey("container1", "test", "* * * * *");
+
+		// a failed execution is not recorded
+		job.run();
+		Assert.assertNull(model.getFireStore().getLastFire(key));
+
+		fail.set(0);
+		job.run();
+		Assert.assertNotNull(model.getFireStore().getLastFire(key));
+		model.getFireStore().close();
+	}
+
+	@Test
+	public void testHashedSchedule() throws Exception {
+		Model model = new Model(new CronScheduler());
+
+		// central batch
+		Map<String, String> attributes3 = new HashMap<String, String>();
+		attributes3.put("id", "test");
+		attributes3.put("name", "container with schedule");
+		attributes3.put("job.test.scenario", "Local");
+		attributes3.put("job.test.executor", "Simulator");
+		attributes3.put("job.test.schedule", "H 2 * * *");
+		attributes3.put("job.test.command.1", "'echo test'");
+		Container c = new Container(model, attributes3);
+		model.setBatchContainer(c);
+		model.addContainer(c);
+
+		Set<String> schedules = new HashSet<String>();
+		for (int j = 1; j <= 10; j++) {
+			Map<String, String> attributes2 = new HashMap<String, String>();
+			attributes2.put("id", "" + j);
+			attributes2.put("name", "container" + j);
+			Container container = new Container(model, attributes2);
+			model.addContainer(container);
+			for (Job job : container.getJobs()) {
+				Assert.assertEquals(HashedSchedule.resolve("H 2 * * *", "container" + j), job.getSchedule());
+				Assert.assertTrue(job.getSchedule().matches("\\d+ 2 \\* \\* \\*"));
+				schedules.add(job.getSchedule());
+			}
+		}
+		Assert.assertEquals(10, model.getCountOfScheduledJobs());
+		Assert.assertTrue(schedules.size() > 1);
+
+		Assert.assertEquals("0 2 * * *", HashedSchedule.resolve("0 2 * * *", "container1"));
+		Assert.assertTrue(HashedSchedule.resolve("H/15 * * * *", "container1").matches("\\d+-59/15 \\* \\* \\* \\*"));
+		String[] fields = HashedSchedule.resolve("H(0-29) H(1-3) * * *", "container1").split(" ");
+		Assert.assertTrue(Integer.parseInt(fields[0]) <= 29);
+		Assert.assertTrue(Integer.parseInt(fields[1]) >= 1 && Integer.parseInt(fields[1]) <= 3);
+		Assert.assertTrue(HashedSchedule.resolve("H H * * * *", "container1").matches("\\d+ \\d+ \\* \\* \\* \\*"));
+	}
+
 	
 	
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		Model model = new Model(new CronScheduler());
+		AtomicInteger errors = new AtomicInteger();
+		Thread writer = new Thread(() -> {
+			for (int j = 0; j < 2000; j++) {
+				Map<String, String> attributes = new HashMap<String, String>();
+				attributes.put("id", "" + j);
+				attributes.put("name", "container" + j);
+				model.addContainer(new Container(model, attributes));
+				if (j % 2 == 0) {
+					model.deleteContainer("" + j);
+				}
+			}
+		});
+		writer.start();
+		try {
+			while (writer.isAlive()) {
+				for (Container c : model.getContainers()) {
+					if (c.getName() == null || c.getJobs() == null) {
+						errors.incrementAndGet();
+					}
+				}
+				model.getContainerByName("container1");
+			}
+		} catch (Exception ex) {
+			errors.incrementAndGet();
+		}
+		writer.join();
+		Assert.assertEquals(0, errors.get());
+		Assert.assertEquals(1000, model.getContainers().size());
+		Assert.assertNotNull(model.getContainerByName("container1"));
+		Assert.assertNull(model.getContainerByName("container2"));
+	}
+
+	@Test
+	public void testIndexes() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "1");
+		attributes.put("name", "container1");
+		Container c = model.addContainer(new Container(model, attributes));
+		Assert.assertSame(c, model.getContainerByName("container1"));
+
+		Job job = c.findJob("test", "0 2 * * *");
+		Assert.assertSame(job, c.findJob("test", "0 2 * * *"));
+		Assert.assertNotSame(job, c.findJob("test", "0 3 * * *"));
+		Assert.assertEquals(2, c.getJobs().size());
+
+		model.deleteContainer("1");
+		Assert.assertTrue(c.isDeleted());
+		Assert.assertNull(model.getContainerByName("container1"));
+	}
+
+	@Test
+	public void testRestart() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Container c1 = model.addContainer(createScheduledContainer(model, "1", "* * * * *"));
+		Job job = c1.getJobs().iterator().next();
+		String scheduleId = job.getId();
+		Assert.assertEquals(1, model.getCountOfScheduledJobs());
+
+		// stopped: the job stays scheduled but is not executed
+		model.retireContainer("1");
+		Assert.assertTrue(c1.isDeleted());
+		Assert.assertEquals(1, model.getRetiredCount());
+		Assert.assertEquals(1, model.getScheduler().getCountOfScheduledJobs());
+		Assert.assertEquals(0, model.getCountOfScheduledJobs());
+		job.run();
+		Assert.assertEquals(0, job.getSkippedCount());
+
+		// restarted with the same labels: the job is reused
+		model.addContainer(createScheduledContainer(model, "1", "* * * * *"));
+		Assert.assertSame(c1, model.getContainer("1"));
+		Assert.assertFalse(c1.isDeleted());
+		Assert.assertEquals(scheduleId, job.getId());
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(1, model.getCountOfScheduledJobs());
+
+		// recreated with a new id and changed labels: the jobs are replaced
+		model.retireContainer("1");
+		Container c2 = model.addContainer(createScheduledContainer(model, "2", "0 2 * * *"));
+		Assert.assertNotSame(c1, model.getContainerByName("container"));
+		Assert.assertSame(c2, model.getContainerByName("container"));
+		Assert.assertNull(job.getId());
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(1, model.getCountOfScheduledJobs());
+
+		// destroyed after the stop
+		model.retireContainer("2");
+		model.deleteContainer("2");
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(0, model.getCountOfScheduledJobs());
+	}
+
+	@Test
+	public void testRecreate() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Container c1 = createScheduledContainer(model, "1", "* * * * *");
+		Map<String, String> attributes = new HashMap<String, String>(c1.getAttributes());
+		attributes.put("job.other.schedule", "0 1 * * *");
+		attributes.put("job.other.command.1", "'echo other'");
+		c1 = model.addContainer(new Container(model, attributes));
+		Job test = findJob(c1, "test");
+		Job other = findJob(c1, "other");
+		String testId = test.getId();
+		String otherId = other.getId();
+
+		// recreated with a new id and the same labels: the jobs are moved to the new container
+		model.retireContainer("1");
+		attributes.put("id", "2");
+		attributes.put("created", "" + System.nanoTime());
+		Container c2 = model.addContainer(new Container(model, attributes));
+		Assert.assertNotSame(c1, c2);
+		Assert.assertSame(test, findJob(c2, "test"));
+		Assert.assertSame(other, findJob(c2, "other"));
+		Assert.assertEquals(testId, test.getId());
+		Assert.assertEquals(otherId, other.getId());
+		Assert.assertSame(c2, test.getOwner());
+		Assert.assertSame(c2, test.getCommandGroups().get(0).getDestination().getDataSourceContainer());
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(2, model.getCountOfScheduledJobs());
+
+		// only the changed job is swapped
+		model.retireContainer("2");
+		attributes.put("id", "3");
+		attributes.put("job.other.schedule", "0 2 * * *");
+		Container c3 = model.addContainer(new Container(model, attributes));
+		Assert.assertSame(test, findJob(c3, "test"));
+		Assert.assertEquals(testId, test.getId());
+		Job changed = findJob(c3, "other");
+		Assert.assertNotSame(other, changed);
+		Assert.assertEquals("0 2 * * *", changed.getSchedule());
+		Assert.assertNotNull(changed.getId());
+		Assert.assertNull(other.getId());
+		Assert.assertEquals(2, model.getCountOfScheduledJobs());
+		Assert.assertEquals(2, model.getScheduler().getCountOfScheduledJobs());
+	}
+
+	@Test
+	public void testReplace() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Container c1 = model.addContainer(createScheduledContainer(model, "1", "* * * * *"));
+		Job test = findJob(c1, "test");
+
+		// the same labels: we keep the container and its jobs
+		Map<String, String> attributes = new HashMap<String, String>(c1.getAttributes());
+		Assert.assertSame(c1, model.replaceContainer(new Container(model, attributes)));
+		Assert.assertNotNull(test.getId());
+		Assert.assertEquals(1, model.getScheduler().getCountOfScheduledJobs());
+
+		// changed labels of the same id: the stale job is descheduled
+		attributes.put("job.test.schedule", "0 1 * * *");
+		Container c2 = model.replaceContainer(new Container(model, attributes));
+		Assert.assertNotSame(c1, c2);
+		Assert.assertSame(c2, model.getContainer("1"));
+		Assert.assertNull(test.getId());
+		Assert.assertEquals("0 1 * * *", findJob(c2, "test").getSchedule());
+		Assert.assertNotNull(findJob(c2, "test").getId());
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(1, model.getCountOfScheduledJobs());
+		Assert.assertEquals(1, model.getScheduler().getCountOfScheduledJobs());
+	}
+
+	private Job findJob(Container c, String name) {
+		for (Job job : c.getJobs()) {
+			if (job.getName().equals(name)) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testAddContainers() throws Exception {
+		// plan in parallel even on a single processor
+		System.setProperty("planningThreads", "4");
+		Model model = new Model(new CronScheduler());
+		System.clearProperty("planningThreads");
+		List<Container> containers = new ArrayList<Container>();
+		for (int j = 0; j < 50; j++) {
+			containers.add(createScheduledContainer(model, "id" + j, "0 " + (j % 24) + " * * *"));
+		}
+		// duplicate ids are only added once
+		containers.add(createScheduledContainer(model, "id0", "0 5 * * *"));
+		// the planning of an invalid container does not affect the others
+		Container invalid = new Container(model, createScheduledContainer(model, "invalid", "0 5 * * *").getAttributes()) {
+			@Override
+			public void createJobs() {
+				super.createJobs();
+				throw new IllegalStateException("planning failed");
+			}
+		};
+		containers.add(invalid);
+
+		Collection<Container> result = model.addContainers(containers);
+		Assert.assertEquals(51, result.size());
+		Assert.assertEquals(51, model.getContainers().size());
+		Assert.assertEquals(50, model.getCountOfScheduledJobs());
+		Assert.assertEquals(0, model.getContainer("invalid").getJobCount());
+		result.remove(invalid);
+		for (Container c : result) {
+			Assert.assertEquals(1, c.getJobCount());
+			Assert.assertNotNull(c.getJobs().iterator().next().getId());
+		}
+		Assert.assertEquals("0 0 * * *", model.getContainer("id0").getJobs().iterator().next().getSchedule());
+
+		// existing containers are not added again
+		Assert.assertTrue(model.addContainers(containers).isEmpty());
+		Assert.assertEquals(50, model.getCountOfScheduledJobs());
+	}
+
+	@Test
+	public void testRetireTimeout() throws Exception {
+		System.setProperty("retireTimeoutSec", "1");
+		Model model = new Model(new CronScheduler());
+		System.clearProperty("retireTimeoutSec");
+		model.addContainer(createScheduledContainer(model, "1", "* * * * *"));
+		model.retireContainer("1");
+		Assert.assertEquals(1, model.getRetiredCount());
+		Assert.assertEquals(1, model.getScheduler().getCountOfScheduledJobs());
+
+		// removed by the timer without any other stopped container
+		for (int j = 0; j < 50 && model.getRetiredCount() > 0; j++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(0, model.getRetiredCount());
+		Assert.assertEquals(0, model.getScheduler().getCountOfScheduledJobs());
+	}
+
+	private Container createScheduledContainer(Model model, String id, String schedule) {
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", id);
+		attributes.put("name", "container");
+		attributes.put("created", "" + System.nanoTime());
+		attributes.put("job.test.executor", "Simulator");
+		attributes.put("job.test.schedule", schedule);
+		attributes.put("job.test.command.1", "'echo test'");
+		return new Container(model, attributes);
+	}
+
+	@Test
+	public void testAttributes() throws Exception {
+		Map<String, String> map1 = new HashMap<String, String>();
+		map1.put("name", "container1");
+		map1.put("job.test.schedule", "0 2 * * *");
+		map1.put("description", null);
+		Map<String, String> map2 = new HashMap<String, String>(map1);
+		map2.put("name", "container2");
+
+		Attributes a1 = Attributes.of(map1);
+		Attributes a2 = Attributes.of(map2);
+		Assert.assertEquals(map1, a1);
+		Assert.assertEquals("container2", a2.get("name"));
+		Assert.assertTrue(a1.containsKey("description"));
+		Assert.assertNull(a1.get("unknown"));
+		Assert.assertSame(a1.keySet().iterator().next(), a2.keySet().iterator().next());
+		try {
+			a1.put("name", "x");
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+		}
+
+		Map<String, String> volume = new HashMap<String, String>();
+		volume.put("volume", "/data");
+		volume.put("name", "overlay");
+		Map<String, String> overlay = Attributes.overlay(a1, volume);
+		Assert.assertEquals("/data", overlay.get("volume"));
+		Assert.assertEquals("overlay", overlay.get("name"));
+		Assert.assertEquals("0 2 * * *", overlay.get("job.test.schedule"));
+		Assert.assertEquals(4, overlay.size());
+		Assert.assertEquals("container1", a1.get("name"));
+
+		Assert.assertEquals("/data", a1.with(volume).get("volume"));
+
+		// the attributes of a container are changed by replacing them
+		Container c = new Container(null, map1);
+		Map<String, String> before = c.getAttributes();
+		try {
+			before.put("description", "x");
+			Assert.fail();
+		} catch (UnsupportedOperationException ex) {
+		}
+		c.setAttribute("description", "test");
+		Assert.assertEquals("test", c.getAttributes().get("description"));
+		Assert.assertNull(before.get("description"));
+	}
+
+	@Test
+	public void testCentralSteps() throws Exception {
+		Model model = new Model(new CronScheduler());
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", "test");
+		attributes.put("name", "batch");
+		attributes.put("job.test.scenario", "Local");
+		attributes.put("job.test.executor", "Simulator");
+		attributes.put("job.test.schedule", "0 2 * * *");
+		attributes.put("job.test.command.1", "'echo test'");
+		Container batch = new Container(model, attributes);
+		model.setBatchContainer(batch);
+		model.addContainer(batch);
+
+		Collection<CommandInfo> steps = model.getCentralSteps(batch);
+		Assert.assertEquals(1, steps.size());
+		for (int j = 1; j <= 10; j++) {
+			Map<String, String> attributes2 = new HashMap<String, String>();
+			attributes2.put("id", "" + j);
+			attributes2.put("name", "container" + j);
+			model.addContainer(new Container(model, attributes2));
+		}
+		Assert.assertEquals(10, model.getCountOfScheduledJobs());
+		Assert.assertSame(steps, model.getCentralSteps(batch));
+
+		model.setBatchContainer(batch);
+		Assert.assertNotSame(steps, model.getCentralSteps(batch));
+	}
+
+	@Test
+	public void testLabelTree() throws Exception {
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("name", "container");
+		attributes.put("job.schedule", "0 1 * * *");
+		attributes.put("job.Backup.schedule", "0 2 * * *");
+		attributes.put("job.backup.schedule.2", "0 3 * * *");
+		attributes.put("job.backup.command.1", "'echo 1'");
+		attributes.put("job.backup.command.2", "'echo 2'");
+		attributes.put("job.level", "Central");
+		attributes.put("job.backup.scenario", "Local");
+		LabelTree labels = new LabelTree(attributes);
+
+		Assert.assertEquals(2, labels.getCommands().size());
+		String[] schedule = { "schedule" };
+		Assert.assertEquals("0 2 * * *", labels.get(schedule, "backup", "1"));
+		Assert.assertEquals("0 3 * * *", labels.get(schedule, "backup", "2"));
+		Assert.assertEquals("0 2 * * *", labels.get(schedule, "backup", null));
+		Assert.assertEquals("0 1 * * *", labels.get(schedule, "other", "1"));
+		Assert.assertEquals("Local", labels.get(new String[] { "level", "scenario" }, "backup", "1"));
+		Assert.assertEquals("Central", labels.get(new String[] { "level", "scenario" }, "other", null));
+		Assert.assertNull(labels.get(new String[] { "condition" }, "backup", "1"));
+	}
+
 	@Test
 	public void testSchedule() throws Exception {
 		Model model = new Model(new CronScheduler());
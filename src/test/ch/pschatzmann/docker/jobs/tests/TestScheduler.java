@@ -0,0 +1,375 @@
+package ch.pschatzmann.docker.jobs.tests;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.pschatzmann.docker.jobs.api.CronExpression;
+import ch.pschatzmann.docker.jobs.api.CronScheduler;
+import ch.pschatzmann.docker.jobs.api.ExecutionPool;
+import ch.pschatzmann.docker.jobs.api.IScheduler;
+import ch.pschatzmann.docker.jobs.api.SharedTriggers;
+import ch.pschatzmann.docker.jobs.api.TimingWheelScheduler;
+import ch.pschatzmann.docker.jobs.executors.ExecutorFactory;
+import ch.pschatzmann.docker.jobs.model.Container;
+import ch.pschatzmann.docker.jobs.model.Job;
+import ch.pschatzmann.docker.jobs.model.JobPlanner.Scenario;
+import ch.pschatzmann.docker.jobs.model.Model;
+import ch.pschatzmann.docker.jobs.model.Utils;
+import it.sauronsoftware.cron4j.Predictor;
+
+/**
+ * Tests for the scheduler implementations
+ *
+ * @author pschatzmann
+ *
+ */
+public class TestScheduler {
+
+	@Test
+	public void testTimingWheelSchedule() throws Exception {
+		IScheduler scheduler = new TimingWheelScheduler();
+		Container container = createContainer(new Model(scheduler));
+
+		String id1 = scheduler.schedule("* * * * *", new Job("test1", "* * * * *", container));
+		String id2 = scheduler.schedule("0 2 * * *", new Job("test2", "0 2 * * *", container));
+		Assert.assertNotEquals(id1, id2);
+		Assert.assertEquals(2, scheduler.getCountOfScheduledJobs());
+
+		scheduler.deschedule(id1);
+		Assert.assertEquals(1, scheduler.getCountOfScheduledJobs());
+		scheduler.deschedule(id1);
+		Assert.assertEquals(1, scheduler.getCountOfScheduledJobs());
+
+		scheduler.start();
+		scheduler.stop();
+		Assert.assertEquals(0, scheduler.getCountOfScheduledJobs());
+	}
+
+	@Test
+	public void testTimingWheelDates() throws Exception {
+		Date from = Utils.getStartOfDay(24 * 60 * 60);
+		Date until = Utils.getStartOfDay(3 * 24 * 60 * 60);
+		for (String schedule : new String[] { "0 2 * * *", "*/15 * * * *", "30 * * * *" }) {
+			List<Date> expected = new ArrayList<Date>(new CronScheduler().getDates(schedule, from, until));
+			List<Date> actual = new ArrayList<Date>(new TimingWheelScheduler().getDates(schedule, from, until));
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testCronExpression() throws Exception {
+		long start = Utils.getStartOfDay(24 * 60 * 60).getTime() + 7 * 60000;
+		for (String schedule : new String[] { "*/7 * * * *", "0 22-2 * * *", "30 12 L * *", "0 0 13 * fri",
+				"5-50/15 9-17 * jan-mar,oct mon-fri", "0 0 * * 7|30 6 1 * *" }) {
+			CronExpression expression = CronExpression.compile(schedule);
+			Predictor predictor = new Predictor(schedule, start);
+			long time = start;
+			for (int j = 0; j < 50; j++) {
+				long expected = predictor.nextMatchingTime();
+				Assert.assertEquals(schedule, expected, expression.next(time));
+				time = expected;
+			}
+		}
+	}
+
+	@Test
+	public void testCronExpressionDates() throws Exception {
+		Date from = new Date(Utils.getStartOfDay(24 * 60 * 60).getTime() / 60000 * 60000);
+		Date until = new Date(from.getTime() + 24 * 60 * 60 * 1000);
+		List<Date> dates = new ArrayList<Date>(new CronScheduler().getDates("0 * * * *", from, until));
+		Assert.assertEquals(24, dates.size());
+		Assert.assertEquals(from, dates.get(0));
+
+		Assert.assertEquals(5, CronExpression.compile("*/15 * * * *").getDates(from, until, 5).size());
+		Assert.assertEquals(-1, CronExpression.compile("0 0 30 2 *").next(from.getTime()));
+	}
+
+	@Test
+	public void testSecondsSchedule() throws Exception {
+		Date from = new Date(Utils.getStartOfDay(24 * 60 * 60).getTime() / 60000 * 60000);
+		Date until = new Date(from.getTime() + 60 * 1000);
+		CronExpression expression = CronExpression.compile("*/15 * * * * *");
+		Assert.assertTrue(expression.hasSeconds());
+		Assert.assertTrue(expression.isSubMinute());
+		Assert.assertFalse(CronExpression.compile("30 0 * * * *").isSubMinute());
+		Assert.assertFalse(CronExpression.compile("* * * * *").hasSeconds());
+
+		List<Date> dates = new ArrayList<Date>(expression.getDates(from, until, 100));
+		Assert.assertEquals(4, dates.size());
+		Assert.assertEquals(from.getTime() + 45 * 1000, dates.get(3).getTime());
+		Assert.assertEquals(from.getTime() + 15 * 1000, expression.next(from.getTime()));
+
+		long[] summary = expression.summarize(from.getTime(), from.getTime() + 24 * 60 * 60 * 1000);
+		Assert.assertEquals(4 * 60 * 24, summary[0]);
+		Assert.assertEquals(from.getTime(), summary[1]);
+	}
+
+	@Test
+	public void testDayOfWeekRanges() throws Exception {
+		// monday 2024-01-01 until the next monday
+		Date from = Date.from(LocalDate.of(2024, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+		Date until = Date.from(LocalDate.of(2024, 1, 8).atStartOfDay(ZoneId.systemDefault()).toInstant());
+		Assert.assertEquals(7, CronExpression.compile("0 0 * * 0-7").getDates(from, until, 100).size());
+
+		List<Date> dates = new ArrayList<Date>(CronExpression.compile("0 0 * * 5-7").getDates(from, until, 100));
+		Assert.assertEquals(3, dates.size());
+		Assert.assertEquals(from.getTime() + 4 * 24 * 60 * 60 * 1000L, dates.get(0).getTime());
+		Assert.assertEquals(from.getTime() + 6 * 24 * 60 * 60 * 1000L, dates.get(2).getTime());
+		Assert.assertEquals(1, CronExpression.compile("0 0 * * 7").getDates(from, until, 100).size());
+	}
+
+	@Test
+	public void testSecondsScheduleOnWheel() throws Exception {
+		CronScheduler scheduler = new CronScheduler();
+		Container container = createContainer(new Model(scheduler));
+		String id1 = scheduler.schedule("*/10 * * * * *", new Job("test1", "*/10 * * * * *", container));
+		String id2 = scheduler.schedule("*/5 * * * *", new Job("test2", "*/5 * * * *", container));
+		Assert.assertEquals(2, scheduler.getCountOfTriggers());
+		scheduler.deschedule(id1);
+		scheduler.deschedule(id2);
+		Assert.assertEquals(0, scheduler.getCountOfTriggers());
+
+		// the timing wheel is only started for schedules with seconds
+		CronScheduler minutes = new CronScheduler();
+		minutes.schedule("*/5 * * * *", new Job("test3", "*/5 * * * *", container));
+		minutes.start();
+		try {
+			Assert.assertFalse(minutes.isTimingWheelActive());
+			minutes.schedule("*/10 * * * * *", new Job("test4", "*/10 * * * * *", container));
+			Assert.assertTrue(minutes.isTimingWheelActive());
+		} finally {
+			minutes.stop();
+		}
+		Assert.assertFalse(minutes.isTimingWheelActive());
+
+		CountDownLatch fired = new CountDownLatch(2);
+		TimingWheelScheduler wheel = new TimingWheelScheduler();
+		wheel.scheduleTask("* * * * * *", () -> fired.countDown());
+		wheel.start();
+		try {
+			Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+		} finally {
+			wheel.stop();
+		}
+	}
+
+	@Test
+	public void testSharedTriggers() throws Exception {
+		CronScheduler scheduler = new CronScheduler();
+		Container container = createContainer(new Model(scheduler));
+
+		String id1 = scheduler.schedule("0 2 * * *", new Job("test1", "0 2 * * *", container));
+		String id2 = scheduler.schedule(" 0  2 * * * ", new Job("test2", " 0  2 * * * ", container));
+		String id3 = scheduler.schedule("*/5 * * * *", new Job("test3", "*/5 * * * *", container));
+		Assert.assertEquals(3, scheduler.getCountOfScheduledJobs());
+		Assert.assertEquals(2, scheduler.getCountOfTriggers());
+
+		scheduler.deschedule(id1);
+		Assert.assertEquals(2, scheduler.getCountOfScheduledJobs());
+		Assert.assertEquals(2, scheduler.getCountOfTriggers());
+		scheduler.deschedule(id2);
+		scheduler.deschedule(id2);
+		Assert.assertEquals(1, scheduler.getCountOfScheduledJobs());
+		Assert.assertEquals(1, scheduler.getCountOfTriggers());
+		scheduler.deschedule(id3);
+		Assert.assertEquals(0, scheduler.getCountOfTriggers());
+	}
+
+	@Test
+	public void testSharedTriggersFanOut() throws Exception {
+		List<SharedTriggers.Trigger> registered = new ArrayList<SharedTriggers.Trigger>();
+		SharedTriggers triggers = new SharedTriggers(trigger -> {
+			registered.add(trigger);
+			return "trigger-" + registered.size();
+		}, id -> {
+		}, Runnable::run);
+		AtomicInteger count = new AtomicInteger();
+		triggers.add("*/5 * * * *", count::incrementAndGet);
+		String id = triggers.add("*/5 * * * *", count::incrementAndGet);
+		triggers.add("*/5 * * * *", count::incrementAndGet);
+		Assert.assertEquals(1, registered.size());
+
+		registered.get(0).run();
+		Assert.assertEquals(3, count.get());
+		triggers.remove(id);
+		registered.get(0).run();
+		Assert.assertEquals(5, count.get());
+	}
+
+	@Test
+	public void testExecutionPool() throws Exception {
+		ExecutionPool pool = new ExecutionPool(2, 1, 10, 3, false);
+		Model model = new Model(new CronScheduler(pool));
+		Container a = createContainer(model, "a");
+		Container b = createContainer(model, "b");
+		CountDownLatch release = new CountDownLatch(1);
+
+		pool.execute(blockingJob(a, release));
+		pool.execute(blockingJob(a, release));
+		pool.execute(blockingJob(b, release));
+		Assert.assertEquals(2, pool.getRunningCount());
+		Assert.assertEquals(1, pool.getQueuedCount());
+
+		pool.execute(() -> {
+		});
+		pool.execute(() -> {
+		});
+		try {
+			pool.execute(() -> {
+			});
+			Assert.fail("The job should have been rejected");
+		} catch (RejectedExecutionException ex) {
+			Assert.assertEquals(1, pool.getRejectedCount());
+		}
+
+		release.countDown();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getCompletedCount() < 5 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(5, pool.getCompletedCount());
+		Assert.assertEquals(0, pool.getRunningCount());
+		pool.stop();
+	}
+
+	@Test
+	public void testExecutorTypeLimits() throws Exception {
+		for (Scenario scenario : new Scenario[] { Scenario.Maven, Scenario.Local, Scenario.Central, null }) {
+			Assert.assertEquals("Executor" + ExecutorFactory.getExecutorType(scenario),
+					ExecutorFactory.getExecutor(false, scenario).getClass().getSimpleName());
+		}
+
+		ExecutionPool pool = new ExecutionPool(10, 10, 10, 10, false);
+		pool.setMaxJobsPerExecutorType("Maven", 1);
+		Assert.assertEquals(1, pool.getMaxJobsPerExecutorType("Maven"));
+		Assert.assertEquals(10, pool.getMaxJobsPerExecutorType("ContainerShell"));
+		Model model = new Model(new CronScheduler(pool));
+		CountDownLatch release = new CountDownLatch(1);
+		pool.execute(typedJob(createContainer(model, "a"), "Maven", release));
+		pool.execute(typedJob(createContainer(model, "b"), "Maven", release));
+		pool.execute(typedJob(createContainer(model, "c"), "ContainerShell", release));
+		Assert.assertEquals(2, pool.getRunningCount());
+		Assert.assertEquals(1, pool.getQueuedCount());
+		release.countDown();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getCompletedCount() < 3 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(3, pool.getCompletedCount());
+
+		// jobs are rejected after the stop
+		model.stopScheduler();
+		try {
+			pool.execute(typedJob(createContainer(model, "a"), "Maven", release));
+			Assert.fail("The job should have been rejected");
+		} catch (RejectedExecutionException ex) {
+		}
+		Assert.assertEquals(0, pool.getRunningCount());
+		Assert.assertEquals(1, pool.getRejectedCount());
+	}
+
+	@Test
+	public void testExecutionPoolOrder() throws Exception {
+		// no limits per container and executor type by default
+		ExecutionPool pool = new ExecutionPool(2, 0, 0, 10, false);
+		Assert.assertEquals(0, pool.getMaxJobsPerExecutorType("Maven"));
+		Model model = new Model(new CronScheduler(pool));
+		Container a = createContainer(model, "a");
+		CountDownLatch release = new CountDownLatch(1);
+		pool.execute(blockingJob(a, release));
+		pool.execute(blockingJob(a, release));
+		Assert.assertEquals(2, pool.getRunningCount());
+		release.countDown();
+		pool.stop();
+
+		// the waiting jobs of different containers and executor types are started
+		// in the order of their submission
+		pool = new ExecutionPool(1, 0, 0, 10, false);
+		CountDownLatch release1 = new CountDownLatch(1);
+		pool.execute(blockingJob(a, release1));
+		List<String> started = new CopyOnWriteArrayList<String>();
+		CountDownLatch done = new CountDownLatch(4);
+		pool.execute(namedJob(createContainer(model, "b"), "Maven", "b1", started, done));
+		pool.execute(namedJob(createContainer(model, "c"), "Maven", "c1", started, done));
+		pool.execute(namedJob(createContainer(model, "b"), "ContainerShell", "b2", started, done));
+		pool.execute(namedJob(createContainer(model, "b"), "Maven", "b3", started, done));
+		Assert.assertEquals(4, pool.getQueuedCount());
+		release1.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(0, pool.getQueuedCount());
+		Assert.assertEquals(Arrays.asList("b1", "c1", "b2", "b3"), started);
+		pool.stop();
+	}
+
+	private Job namedJob(Container container, String executorType, String name, List<String> started,
+			CountDownLatch done) {
+		return new Job(name, "* * * * *", container) {
+			@Override
+			public void run() {
+				started.add(name);
+				done.countDown();
+			}
+
+			@Override
+			public String getExecutorType() {
+				return executorType;
+			}
+		};
+	}
+
+	private Job typedJob(Container container, String executorType, CountDownLatch release) {
+		return new Job("typed", "* * * * *", container) {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+				}
+			}
+
+			@Override
+			public String getExecutorType() {
+				return executorType;
+			}
+		};
+	}
+
+	private Job blockingJob(Container container, CountDownLatch release) {
+		return new Job("blocking", "* * * * *", container) {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+				}
+			}
+		};
+	}
+
+	private Container createContainer(Model model) {
+		return createContainer(model, "test");
+	}
+
+	private Container createContainer(Model model, String id) {
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put("id", id);
+		attributes.put("name", id);
+		return new Container(model, attributes);
+	}
+
+}
@@ -2,6 +2,8 @@ package ch.pschatzmann.docker.jobs.tests;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -9,6 +11,7 @@ import org.junit.Test;
 import ch.pschatzmann.docker.jobs.model.Utils;
 import ch.pschatzmann.docker.jobs.model.scripting.CurlyBracesSubstitutionProcessor;
 import ch.pschatzmann.docker.jobs.model.scripting.IProcessor;
+import ch.pschatzmann.docker.jobs.model.scripting.ScriptEnginePool;
 import ch.pschatzmann.docker.jobs.model.scripting.ScriptingProcessor;
 
 /**
@@ -69,6 +72,162 @@ public class TestScripting {
 	}
 	
 	
+	@Test
+	public void testPooledEngines() throws Exception {
+		for (int j = 0; j < 100; j++) {
+			Map<String,String> map = new HashMap<String, String>();
+			map.put("test1", "value" + j);
+			
+			IProcessor el = new ScriptingProcessor(map, "nashorn");
+			Assert.assertEquals("value" + j, el.getValue("test1"));
+			Assert.assertEquals("true", el.getValue("test1 == 'value" + j + "'"));
+		}
+		Assert.assertTrue(ScriptEnginePool.getIdleCount("nashorn") >= 1);
+	}
+	
+	@Test
+	public void testNoSharedState() throws Exception {
+		for (String engine : new String[] { "nashorn", "groovy" }) {
+			Map<String,String> map1 = new HashMap<String, String>();
+			map1.put("name", "c1");
+			Map<String,String> map2 = new HashMap<String, String>();
+			map2.put("name", "c2");
+
+			IProcessor el1 = new ScriptingProcessor(map1, engine);
+			IProcessor el2 = new ScriptingProcessor(map2, engine);
+			Assert.assertEquals("c1-x", el1.getValue("name = name + '-x'"));
+			Assert.assertEquals("c2", el2.getValue("name"));
+			Assert.assertEquals("c1", el1.getValue("name"));
+			Assert.assertEquals("c1", map1.get("name"));
+
+			for (String leak : new String[] { "leaked = 1", "var leaked = 1" }) {
+				if (leak.startsWith("var") && !engine.equals("nashorn")) {
+					continue;
+				}
+				el1.getValue(leak + "; 'ok'");
+				try {
+					el2.getValue("leaked");
+					Assert.fail("The variable of the other container is visible in " + engine);
+				} catch (Exception ex) {
+				}
+				Assert.assertEquals("c1", el1.getValue("name"));
+			}
+		}
+	}
+
+	@Test
+	public void testScriptTimeout() throws Exception {
+		Map<String,String> map = new HashMap<String, String>();
+		map.put("test1", "value1");
+		long timeouts = ScriptEnginePool.getTimeoutCount();
+		ScriptEnginePool.setTimeoutMs(500);
+		try {
+			IProcessor el = new ScriptingProcessor(map, "nashorn");
+			try {
+				el.getValue("java.lang.Thread.sleep(10000)");
+				Assert.fail("The slow script has not been cancelled");
+			} catch (TimeoutException ex) {
+			}
+			Assert.assertEquals(timeouts + 1, ScriptEnginePool.getTimeoutCount());
+			Assert.assertEquals("value1", el.getValue("test1"));
+
+			// the interrupted thread is not stuck
+			for (int j = 0; j < 50 && ScriptEnginePool.getStuckCount() > 0; j++) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(0, ScriptEnginePool.getStuckCount());
+
+			// an endless loop can not be interrupted: its thread stays stuck
+			try {
+				el.getValue("while(true) {}");
+				Assert.fail("The endless loop has not been cancelled");
+			} catch (TimeoutException ex) {
+			}
+			Assert.assertEquals(1, ScriptEnginePool.getStuckCount());
+
+			// the same script fails immediately and does not block another thread
+			long start = System.currentTimeMillis();
+			try {
+				el.getValue("while(true) {}");
+				Assert.fail("The endless loop has been executed again");
+			} catch (TimeoutException ex) {
+			}
+			Assert.assertTrue(System.currentTimeMillis() - start < 500);
+			Assert.assertEquals(1, ScriptEnginePool.getStuckCount());
+			Assert.assertEquals(timeouts + 3, ScriptEnginePool.getTimeoutCount());
+			Assert.assertEquals("value1", el.getValue("test1"));
+		} finally {
+			ScriptEnginePool.setTimeoutMs(5000);
+		}
+	}
+
+	@Test
+	public void testScriptStart() throws Exception {
+		Map<String,String> map = new HashMap<String, String>();
+		map.put("test1", "value1");
+		IProcessor el = new ScriptingProcessor(map, "nashorn");
+		ScriptEnginePool.setTimeoutMs(1000);
+		try {
+			// the deadline starts with the execution and not with the submission
+			int free = ScriptEnginePool.getEvalThreads() - ScriptEnginePool.getStuckCount();
+			for (int j = 0; j < free; j++) {
+				evaluateInBackground(el, "java.lang.Thread.sleep(700)");
+			}
+			Thread.sleep(100);
+			Assert.assertEquals("done", el.getValue("java.lang.Thread.sleep(700); 'done'"));
+
+			// scripts which ignore the interrupt keep all threads busy for 3 seconds
+			int stuck = ScriptEnginePool.getStuckCount();
+			String busy = "var t = Date.now(); while (Date.now() - t < 3000) {}";
+			for (int j = 0; j < free; j++) {
+				evaluateInBackground(new ScriptingProcessor(map, "nashorn"), busy);
+			}
+			for (int j = 0; j < 50 && ScriptEnginePool.getStuckCount() < ScriptEnginePool.getEvalThreads(); j++) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(ScriptEnginePool.getEvalThreads(), ScriptEnginePool.getStuckCount());
+
+			// the same evaluation fails immediately, but the same script with other
+			// parameters is not blocked
+			try {
+				el.getValue(busy);
+				Assert.fail("The stuck evaluation has been executed again");
+			} catch (TimeoutException ex) {
+			}
+			Map<String,String> map2 = new HashMap<String, String>();
+			map2.put("test1", "value2");
+			try {
+				new ScriptingProcessor(map2, "nashorn").getValue(busy);
+				Assert.fail("The evaluation should not have been started");
+			} catch (RejectedExecutionException ex) {
+				// all threads are busy: this is not a timeout
+			}
+
+			// the threads become available again when the scripts have terminated
+			for (int j = 0; j < 50 && ScriptEnginePool.getStuckCount() > stuck; j++) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(stuck, ScriptEnginePool.getStuckCount());
+			Assert.assertEquals("value1", el.getValue("test1"));
+			try {
+				el.getValue(busy);
+				Assert.fail("The busy script has not been cancelled");
+			} catch (TimeoutException ex) {
+			}
+		} finally {
+			ScriptEnginePool.setTimeoutMs(5000);
+		}
+	}
+
+	private void evaluateInBackground(IProcessor el, String script) {
+		new Thread(() -> {
+			try {
+				el.getValue(script);
+			} catch (Exception ex) {
+			}
+		}).start();
+	}
+
 	@Test
 	public void testCurlyBraces() throws Exception {
 		Map<String,String> map = new HashMap<String, String>();
@@ -79,6 +238,10 @@ public class TestScripting {
 		Assert.assertEquals("value1",el.getValue("{test1}"));
 		Assert.assertEquals("value1-value2",el.getValue("{test1}-{test2}"));			
 		Assert.assertEquals("{test9}-value2",el.getValue("{test9}-{test2}"));			
+		Assert.assertEquals("value1 value1 {test9}",el.getValue("{test1} {test1} {test9}"));
+		Assert.assertEquals("{avalue1",el.getValue("{a{test1}"));
+		Assert.assertEquals("no variables",el.getValue("no variables"));
+		Assert.assertEquals("",el.getValue(""));
 	}
 	
 }